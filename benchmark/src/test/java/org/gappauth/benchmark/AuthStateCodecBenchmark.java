@@ -0,0 +1,62 @@
+package org.gappauth.benchmark;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauthdemo.AuthStateCodec;
+import net.openid.appauthdemo.AuthStateManager;
+import net.openid.appauthdemo.InMemoryAuthStateStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Measures {@link AuthState} persistence as performed by {@link AuthStateManager}: encoding
+ * through {@link AuthStateCodec} into a store, and reading it back.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateCodecBenchmark {
+
+    private static final String KEY_STATE = "state";
+
+    private AuthState mState;
+    private AuthStateCodec mCodec;
+    private InMemoryAuthStateStore mStore;
+
+    @Before
+    public void setUp() throws Exception {
+        mState = Fixtures.authorizedState();
+        mCodec = new AuthStateCodec();
+        mStore = new InMemoryAuthStateStore();
+        mCodec.write(mStore, KEY_STATE, mCodec.encode(mState));
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        Microbenchmark.run("AuthState.jsonSerializeString", () -> mState.jsonSerializeString());
+    }
+
+    @Test
+    public void encodeAndWrite() throws Exception {
+        Microbenchmark.run("AuthStateCodec.encode+write", () -> {
+            AuthStateCodec.Encoded encoded = mCodec.encode(mState);
+            mCodec.write(mStore, KEY_STATE, encoded);
+            return encoded;
+        });
+    }
+
+    @Test
+    public void deserialize() throws Exception {
+        String serialized = mState.jsonSerializeString();
+        Microbenchmark.run("AuthState.jsonDeserialize",
+                () -> AuthState.jsonDeserialize(serialized));
+    }
+
+    @Test
+    public void read() throws Exception {
+        assertNotNull(mCodec.read(mStore, KEY_STATE));
+        Microbenchmark.run("AuthStateCodec.read", () -> mCodec.read(mStore, KEY_STATE));
+    }
+}
@@ -0,0 +1,48 @@
+package org.gappauth.benchmark;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauthdemo.AuthStateManager;
+import net.openid.appauthdemo.InMemoryAuthStateStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures {@link AuthStateManager#update(AuthStateManager.Mutation)}: the copy of the current
+ * state every attempt makes, on its own when the mutation declines to change anything, and
+ * together with publishing and writing the result.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateManagerBenchmark {
+
+    // the manager's store is chosen once per process
+    private static final InMemoryAuthStateStore STORE = new InMemoryAuthStateStore();
+
+    private AuthStateManager mManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mManager = AuthStateManager.getInstance(
+                ApplicationProvider.getApplicationContext(), STORE);
+        mManager.setWriteBehind(false);
+        mManager.replace(Fixtures.authorizedState());
+    }
+
+    @Test
+    public void updateDeclined() throws Exception {
+        Microbenchmark.run("AuthStateManager.update declined (copy only)",
+                () -> mManager.update(state -> null));
+    }
+
+    @Test
+    public void update() throws Exception {
+        Microbenchmark.run("AuthStateManager.update",
+                () -> mManager.update(copy -> {
+                    copy.setNeedsTokenRefresh(false);
+                    return copy;
+                }));
+    }
+}
@@ -0,0 +1,44 @@
+package org.gappauth.benchmark;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauthdemo.Configuration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures {@link Configuration} construction, which generates and hashes the configuration
+ * and checks the redirect URI against the package manager, and the change check against the
+ * last accepted hash.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConfigurationBenchmark {
+
+    private static final String CLIENT_ID_PREFIX = "benchmark";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+    }
+
+    @Test
+    public void construct() throws Exception {
+        Microbenchmark.run("Configuration.<init>",
+                () -> new Configuration(mContext, CLIENT_ID_PREFIX));
+    }
+
+    @Test
+    public void hasConfigurationChanged() throws Exception {
+        Configuration configuration = new Configuration(mContext, CLIENT_ID_PREFIX);
+        configuration.acceptConfiguration();
+        Microbenchmark.run("Configuration.hasConfigurationChanged",
+                configuration::hasConfigurationChanged);
+    }
+}
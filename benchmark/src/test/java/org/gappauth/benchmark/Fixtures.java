@@ -0,0 +1,103 @@
+package org.gappauth.benchmark;
+
+import android.net.Uri;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationRequest;
+import net.openid.appauth.AuthorizationResponse;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.AuthorizationServiceDiscovery;
+import net.openid.appauth.ResponseTypeValues;
+import net.openid.appauth.TokenResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Representative payloads for the benchmarks, modelled on Google's responses.
+ */
+public final class Fixtures {
+
+    public static final String CLIENT_ID =
+            "186861594683-het08bpcuan9lfg1s2mjtk77rncp5hli.apps.googleusercontent.com";
+    public static final Uri REDIRECT_URI = Uri.parse(
+            "com.googleusercontent.apps.186861594683-het08bpcuan9lfg1s2mjtk77rncp5hli"
+                    + ":/oauth2redirect");
+
+    public static final String DISCOVERY_DOC = "{"
+            + "\"issuer\":\"https://accounts.google.com\","
+            + "\"authorization_endpoint\":\"https://accounts.google.com/o/oauth2/v2/auth\","
+            + "\"device_authorization_endpoint\":\"https://oauth2.googleapis.com/device/code\","
+            + "\"token_endpoint\":\"https://oauth2.googleapis.com/token\","
+            + "\"userinfo_endpoint\":\"https://openidconnect.googleapis.com/v1/userinfo\","
+            + "\"revocation_endpoint\":\"https://oauth2.googleapis.com/revoke\","
+            + "\"jwks_uri\":\"https://www.googleapis.com/oauth2/v3/certs\","
+            + "\"response_types_supported\":[\"code\",\"token\",\"id_token\",\"code token\","
+            + "\"code id_token\",\"token id_token\",\"code token id_token\",\"none\"],"
+            + "\"subject_types_supported\":[\"public\"],"
+            + "\"id_token_signing_alg_values_supported\":[\"RS256\"],"
+            + "\"scopes_supported\":[\"openid\",\"email\",\"profile\"],"
+            + "\"token_endpoint_auth_methods_supported\":[\"client_secret_post\","
+            + "\"client_secret_basic\"],"
+            + "\"claims_supported\":[\"aud\",\"email\",\"email_verified\",\"exp\","
+            + "\"family_name\",\"given_name\",\"iat\",\"iss\",\"locale\",\"name\",\"picture\","
+            + "\"sub\"],"
+            + "\"code_challenge_methods_supported\":[\"plain\",\"S256\"],"
+            + "\"grant_types_supported\":[\"authorization_code\",\"refresh_token\","
+            + "\"urn:ietf:params:oauth:grant-type:device_code\","
+            + "\"urn:ietf:params:oauth:grant-type:jwt-bearer\"]"
+            + "}";
+
+    public static final String USER_INFO = "{"
+            + "\"sub\":\"110169484474386276334\","
+            + "\"name\":\"Jane Doe\","
+            + "\"given_name\":\"Jane\","
+            + "\"family_name\":\"Doe\","
+            + "\"picture\":\"https://lh3.googleusercontent.com/a/AATXAJwq8Rk4X1s0bMnR7fOZ"
+            + "NMhB7cLQQz4v0pZqmW3a=s96-c\","
+            + "\"email\":\"jane.doe@example.com\","
+            + "\"email_verified\":true,"
+            + "\"locale\":\"en\""
+            + "}";
+
+    private Fixtures() {
+        // no need to construct instances of this class
+    }
+
+    public static AuthorizationServiceConfiguration serviceConfiguration() throws JSONException {
+        try {
+            return new AuthorizationServiceConfiguration(
+                    new AuthorizationServiceDiscovery(new JSONObject(DISCOVERY_DOC)));
+        } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns an authorized state as it looks after a code exchange: the configuration, the
+     * last authorization and token responses, each carrying the discovery document.
+     */
+    public static AuthState authorizedState() throws JSONException {
+        AuthorizationRequest request = new AuthorizationRequest.Builder(
+                serviceConfiguration(), CLIENT_ID, ResponseTypeValues.CODE, REDIRECT_URI)
+                .setScope("openid profile email")
+                .build();
+        AuthorizationResponse authResponse = new AuthorizationResponse.Builder(request)
+                .setState(request.state)
+                .setAuthorizationCode("4/0AX4XfWh2n7Vx1kQJm3Zb5xYy8pLr6TqAa9cDe")
+                .setScope("openid profile email")
+                .build();
+        TokenResponse tokenResponse =
+                new TokenResponse.Builder(authResponse.createTokenExchangeRequest())
+                        .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                        .setAccessToken("ya29.a0ARrdaM-6u0bR1yWw2ZmX3fNqKc8LhE7pVt5sDg4JoY")
+                        .setAccessTokenExpirationTime(
+                                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+                        .setRefreshToken("1//0gYb2h8Xq3LmECgYIARAAGBASNwF-L9IrZ4tWk")
+                        .setScope("openid profile email")
+                        .build();
+        return new AuthState(authResponse, tokenResponse, null);
+    }
+}
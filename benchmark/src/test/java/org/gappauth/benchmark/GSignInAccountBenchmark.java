@@ -0,0 +1,44 @@
+package org.gappauth.benchmark;
+
+import org.gappauth.sdk.UserInfoCache;
+import org.gappauth.sdk.entity.GSignInAccount;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.charset.StandardCharsets;
+
+import okio.Buffer;
+
+/**
+ * Measures parsing of a userinfo response into a {@link GSignInAccount}, from a string and
+ * streamed from the response body as {@link UserInfoCache} does.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GSignInAccountBenchmark {
+
+    private static final byte[] USER_INFO = Fixtures.USER_INFO.getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void fromJsonString() throws Exception {
+        Microbenchmark.run("GSignInAccount.Builder.fromJson(String)",
+                () -> new GSignInAccount.Builder().fromJson(Fixtures.USER_INFO).build());
+    }
+
+    @Test
+    public void fromJsonSource() throws Exception {
+        Microbenchmark.run("GSignInAccount.Builder.fromJson(BufferedSource)",
+                () -> new GSignInAccount.Builder()
+                        .fromJson(new Buffer().write(USER_INFO), UserInfoCache.MAX_RESPONSE_BYTES)
+                        .build());
+    }
+
+    @Test
+    public void fromJsonSourceCompact() throws Exception {
+        Microbenchmark.run("GSignInAccount.Builder.fromJson(BufferedSource) compact",
+                () -> new GSignInAccount.Builder()
+                        .setKeepRawJson(false)
+                        .fromJson(new Buffer().write(USER_INFO), UserInfoCache.MAX_RESPONSE_BYTES)
+                        .build());
+    }
+}
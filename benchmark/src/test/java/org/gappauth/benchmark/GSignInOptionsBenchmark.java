@@ -0,0 +1,24 @@
+package org.gappauth.benchmark;
+
+import org.gappauth.sdk.entity.GSignInOptions;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Measures building the scope string of {@link GSignInOptions}, which is done for every
+ * authorization request.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GSignInOptionsBenchmark {
+
+    @Test
+    public void getScopes() throws Exception {
+        GSignInOptions options = new GSignInOptions.Builder(GSignInOptions.DEFAULT_SIGN_IN)
+                .requestEmail()
+                .requestScopes("https://www.googleapis.com/auth/drive.file",
+                        "https://www.googleapis.com/auth/games_lite")
+                .build();
+        Microbenchmark.run("GSignInOptions.getScopes", options::getScopes);
+    }
+}
@@ -0,0 +1,145 @@
+package org.gappauth.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal JMH-style harness that runs on the JVM under Robolectric. Each benchmark is warmed
+ * up, then measured over a number of fixed-length iterations; the median iteration is reported
+ * as throughput in ops/s together with the bytes allocated per op by the benchmarking thread.
+ * Results are printed and appended, one JSON object per line, to `results.jsonl` in the
+ * directory named by the `benchmark.outputDir` system property.
+ */
+public final class Microbenchmark {
+
+    private static final int WARMUP_ITERATIONS =
+            Integer.getInteger("benchmark.warmupIterations", 5);
+    private static final int MEASUREMENT_ITERATIONS =
+            Integer.getInteger("benchmark.measurementIterations", 10);
+    private static final long ITERATION_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Long.getLong("benchmark.iterationMillis", 200L));
+
+    /**
+     * Results of the measured ops are stored here so the JIT cannot eliminate them.
+     */
+    @SuppressWarnings("unused")
+    private static volatile Object sSink;
+
+    public interface Op {
+        /**
+         * Runs the operation once. The returned value is consumed by the harness.
+         */
+        Object run() throws Exception;
+    }
+
+    private Microbenchmark() {
+        // no need to construct instances of this class
+    }
+
+    public static Result run(String name, Op op) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            measure(op);
+        }
+
+        Iteration[] iterations = new Iteration[MEASUREMENT_ITERATIONS];
+        for (int i = 0; i < iterations.length; i++) {
+            iterations[i] = measure(op);
+        }
+        Arrays.sort(iterations, (a, b) -> Double.compare(a.opsPerSecond, b.opsPerSecond));
+
+        Iteration median = iterations[iterations.length / 2];
+        Result result = new Result(name, median.opsPerSecond,
+                iterations[0].opsPerSecond, iterations[iterations.length - 1].opsPerSecond,
+                median.bytesPerOp);
+        result.publish();
+        return result;
+    }
+
+    private static Iteration measure(Op op) throws Exception {
+        long startBytes = allocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + ITERATION_NANOS;
+        long ops = 0;
+        long now;
+        do {
+            sSink = op.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytes = allocatedBytes() - startBytes;
+
+        double opsPerSecond = ops * (double) TimeUnit.SECONDS.toNanos(1) / (now - start);
+        double bytesPerOp = startBytes >= 0 ? bytes / (double) ops : -1;
+        return new Iteration(opsPerSecond, bytesPerOp);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static final class Iteration {
+        final double opsPerSecond;
+        final double bytesPerOp;
+
+        Iteration(double opsPerSecond, double bytesPerOp) {
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    public static final class Result {
+        public final String name;
+        public final double opsPerSecond;
+        public final double minOpsPerSecond;
+        public final double maxOpsPerSecond;
+        public final double bytesPerOp;
+
+        Result(String name, double opsPerSecond, double minOpsPerSecond,
+               double maxOpsPerSecond, double bytesPerOp) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.minOpsPerSecond = minOpsPerSecond;
+            this.maxOpsPerSecond = maxOpsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        private void publish() throws IOException {
+            System.out.println(String.format(Locale.US,
+                    "%-48s %14.1f ops/s  [%.1f, %.1f]  %10.1f B/op",
+                    name, opsPerSecond, minOpsPerSecond, maxOpsPerSecond, bytesPerOp));
+
+            String outputDir = System.getProperty("benchmark.outputDir");
+            if (outputDir == null) {
+                return;
+            }
+            File dir = new File(outputDir);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            try (Writer writer = new FileWriter(new File(dir, "results.jsonl"), true)) {
+                writer.write(String.format(Locale.US,
+                        "{\"name\":\"%s\",\"ops_per_second\":%.1f,\"min_ops_per_second\":%.1f,"
+                                + "\"max_ops_per_second\":%.1f,\"bytes_per_op\":%.1f}\n",
+                        name, opsPerSecond, minOpsPerSecond, maxOpsPerSecond, bytesPerOp));
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package net.openid.appauthdemo;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.openid.appauth.AuthState;
+
+import org.apache.commons.codec.binary.Hex;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Serializes {@link AuthState} for an {@link AuthStateStore} without repeating the discovery
+ * document. {@link AuthState#jsonSerialize()} embeds the full document in the configuration and
+ * again in every request it retains; here each copy is replaced by a reference to its SHA-256,
+ * and the document itself is stored once under that hash, shared by every record that uses it.
+ *
+ * What a routine token update saves depends on the store. {@link FileAuthStateStore} keeps each
+ * record in its own file, so only the state's few hundred bytes are rewritten.
+ * {@link SharedPreferencesAuthStateStore} rewrites its whole file on every write, so there the
+ * update still rewrites the document, but only one copy of it instead of one per record and
+ * request, and the state is serialized and parsed without it.
+ *
+ * The records referring to each document are kept in an index, so that a document is deleted
+ * once no record refers to it any more, e.g. after the discovery document changed.
+ *
+ * Only {@link AuthStateManager} uses the codec; it is public so that the benchmarks can measure
+ * it on its own.
+ */
+@VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+public final class AuthStateCodec {
+
+    private static final String TAG = "AuthStateCodec";
+
+    private static final String KEY_DISCOVERY_DOC = "discoveryDoc";
+    private static final String KEY_DISCOVERY_DOC_REF = "discoveryDocRef";
+    private static final String DOC_KEY_PREFIX = "discovery.";
+    private static final String KEY_DOC_REFS = "discovery_refs";
+    // refers to documents stored before the index was, which may be used by records it lacks
+    private static final String UNKNOWN_REFERRER = "";
+
+    // documents are shared by identity between a configuration and the requests that use it,
+    // so this avoids re-serializing and re-hashing the same document on every write
+    private final Map<JSONObject, String> mHashes =
+            Collections.synchronizedMap(new WeakHashMap<>());
+    private final Map<String, JSONObject> mDocs = new HashMap<>();
+    private final Set<String> mStoredHashes = new HashSet<>();
+    // the keys of the records referring to each stored document, loaded on first write
+    private Map<String, Set<String>> mDocRefs;
+
+    /**
+     * Serializes the state, moving any discovery documents out of it.
+     */
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    @NonNull
+    public Encoded encode(@NonNull AuthState state) {
+        JSONObject json = state.jsonSerialize();
+        Map<String, JSONObject> docs = new HashMap<>();
+        try {
+            extractDocs(json, docs);
+        } catch (JSONException ex) {
+            Log.w(TAG, "Failed to extract discovery document, storing state as is", ex);
+            return new Encoded(state.jsonSerializeString(), Collections.emptyMap());
+        }
+        return new Encoded(json.toString(), docs);
+    }
+
+    /**
+     * Writes the encoded state, or removes it if null, along with any documents it refers to
+     * that are not stored yet, and deletes the documents no record refers to any more. Must be
+     * called with the store lock held.
+     *
+     * A record is added to the index before it is written and removed after, so that a crash
+     * in between can leave an unused document behind, but never delete one in use.
+     */
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    public void write(@NonNull AuthStateStore store, @NonNull String key,
+                      @Nullable Encoded encoded) throws IOException {
+        Map<String, Set<String>> refs = loadDocRefs(store);
+        Set<String> hashes =
+                encoded != null ? encoded.docs.keySet() : Collections.<String>emptySet();
+
+        boolean added = false;
+        for (String hash : hashes) {
+            Set<String> referrers = refs.get(hash);
+            if (referrers == null) {
+                referrers = new HashSet<>();
+                refs.put(hash, referrers);
+                if (mStoredHashes.contains(hash)
+                        || store.read(DOC_KEY_PREFIX + hash) != null) {
+                    // stored before the index was, maybe for records it does not list
+                    referrers.add(UNKNOWN_REFERRER);
+                } else {
+                    store.write(DOC_KEY_PREFIX + hash, encoded.docs.get(hash).toString());
+                }
+                mStoredHashes.add(hash);
+            }
+            added |= referrers.add(key);
+        }
+        if (added) {
+            writeDocRefs(store, refs);
+        }
+
+        store.write(key, encoded != null ? encoded.state : null);
+
+        List<String> unused = new ArrayList<>();
+        boolean removed = false;
+        for (Map.Entry<String, Set<String>> doc : refs.entrySet()) {
+            if (!hashes.contains(doc.getKey()) && doc.getValue().remove(key)) {
+                removed = true;
+                if (doc.getValue().isEmpty()) {
+                    unused.add(doc.getKey());
+                }
+            }
+        }
+        if (!removed) {
+            return;
+        }
+        for (String hash : unused) {
+            refs.remove(hash);
+        }
+        writeDocRefs(store, refs);
+        for (String hash : unused) {
+            store.write(DOC_KEY_PREFIX + hash, null);
+            mStoredHashes.remove(hash);
+            JSONObject doc = mDocs.remove(hash);
+            if (doc != null) {
+                mHashes.remove(doc);
+            }
+        }
+    }
+
+    /**
+     * Reads and deserializes the state stored under `key`, restoring the discovery documents it
+     * refers to. Must be called with the store lock held.
+     */
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    @Nullable
+    public AuthState read(@NonNull AuthStateStore store, @NonNull String key)
+            throws IOException, JSONException {
+        String stored = store.read(key);
+        if (stored == null) {
+            return null;
+        }
+
+        JSONObject json = new JSONObject(stored);
+        restoreDocs(store, json);
+        return AuthState.jsonDeserialize(json);
+    }
+
+    private Map<String, Set<String>> loadDocRefs(AuthStateStore store) throws IOException {
+        if (mDocRefs != null) {
+            return mDocRefs;
+        }
+
+        Map<String, Set<String>> refs = new HashMap<>();
+        String stored = store.read(KEY_DOC_REFS);
+        if (stored != null) {
+            try {
+                JSONObject index = new JSONObject(stored);
+                for (String hash : keysOf(index)) {
+                    JSONArray referrers = index.getJSONArray(hash);
+                    Set<String> keys = new HashSet<>();
+                    for (int i = 0; i < referrers.length(); i++) {
+                        keys.add(referrers.getString(i));
+                    }
+                    refs.put(hash, keys);
+                }
+            } catch (JSONException ex) {
+                // without the index no document can be known to be unused, so none is deleted
+                Log.w(TAG, "Failed to read discovery document index - discarding", ex);
+                refs.clear();
+            }
+        }
+        mDocRefs = refs;
+        return refs;
+    }
+
+    private void writeDocRefs(AuthStateStore store, Map<String, Set<String>> refs)
+            throws IOException {
+        JSONObject index = new JSONObject();
+        try {
+            for (Map.Entry<String, Set<String>> doc : refs.entrySet()) {
+                index.put(doc.getKey(), new JSONArray(doc.getValue()));
+            }
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Failed to serialize discovery document index", ex);
+        }
+        store.write(KEY_DOC_REFS, index.toString());
+    }
+
+    private void extractDocs(JSONObject json, Map<String, JSONObject> docs) throws JSONException {
+        for (String name : keysOf(json)) {
+            Object value = json.get(name);
+            if (KEY_DISCOVERY_DOC.equals(name) && value instanceof JSONObject) {
+                JSONObject doc = (JSONObject) value;
+                String hash = hashOf(doc);
+                docs.put(hash, doc);
+                json.remove(KEY_DISCOVERY_DOC);
+                json.put(KEY_DISCOVERY_DOC_REF, hash);
+            } else if (value instanceof JSONObject) {
+                extractDocs((JSONObject) value, docs);
+            } else if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                for (int i = 0; i < array.length(); i++) {
+                    if (array.get(i) instanceof JSONObject) {
+                        extractDocs(array.getJSONObject(i), docs);
+                    }
+                }
+            }
+        }
+    }
+
+    private void restoreDocs(AuthStateStore store, JSONObject json)
+            throws IOException, JSONException {
+        for (String name : keysOf(json)) {
+            Object value = json.get(name);
+            if (KEY_DISCOVERY_DOC_REF.equals(name)) {
+                json.remove(KEY_DISCOVERY_DOC_REF);
+                JSONObject doc = loadDoc(store, (String) value);
+                if (doc != null) {
+                    json.put(KEY_DISCOVERY_DOC, doc);
+                } else {
+                    // fall back to the static endpoints stored alongside the reference
+                    Log.w(TAG, "Discovery document " + value + " is missing");
+                }
+            } else if (value instanceof JSONObject) {
+                restoreDocs(store, (JSONObject) value);
+            } else if (value instanceof JSONArray) {
+                JSONArray array = (JSONArray) value;
+                for (int i = 0; i < array.length(); i++) {
+                    if (array.get(i) instanceof JSONObject) {
+                        restoreDocs(store, array.getJSONObject(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private JSONObject loadDoc(AuthStateStore store, String hash)
+            throws IOException, JSONException {
+        JSONObject doc = mDocs.get(hash);
+        if (doc != null) {
+            return doc;
+        }
+
+        String stored = store.read(DOC_KEY_PREFIX + hash);
+        if (stored == null) {
+            return null;
+        }
+        doc = new JSONObject(stored);
+        mDocs.put(hash, doc);
+        mHashes.put(doc, hash);
+        mStoredHashes.add(hash);
+        return doc;
+    }
+
+    private String hashOf(JSONObject doc) {
+        String hash = mHashes.get(doc);
+        if (hash == null) {
+            hash = sha256(doc.toString());
+            mHashes.put(doc, hash);
+        }
+        return hash;
+    }
+
+    private static List<String> keysOf(JSONObject json) {
+        List<String> keys = new ArrayList<>(json.length());
+        Iterator<String> it = json.keys();
+        while (it.hasNext()) {
+            keys.add(it.next());
+        }
+        return keys;
+    }
+
+    private static String sha256(String str) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return Hex.encodeHexString(messageDigest.digest(str.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+    }
+
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    public static final class Encoded {
+        final String state;
+        final Map<String, JSONObject> docs;
+
+        Encoded(String state, Map<String, JSONObject> docs) {
+            this.state = state;
+            this.docs = docs;
+        }
+    }
+}
@@ -15,12 +15,13 @@
 package net.openid.appauthdemo;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import net.openid.appauth.AuthState;
 import net.openid.appauth.AuthorizationException;
@@ -28,16 +29,44 @@ import net.openid.appauth.AuthorizationResponse;
 import net.openid.appauth.RegistrationResponse;
 import net.openid.appauth.TokenResponse;
 
+import org.gappauth.sdk.Dispatcher;
+import org.gappauth.sdk.Jwt;
+import org.gappauth.sdk.Metrics;
+import org.gappauth.sdk.entity.GSignInEvent;
 import org.json.JSONException;
+import org.json.JSONObject;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An example persistence mechanism for an {@link AuthState} instance.
- * This stores the instance in a shared preferences file, and provides thread-safe access and
- * mutation.
+ * This stores the instance in an {@link AuthStateStore} (a shared preferences file by default),
+ * and provides thread-safe access and mutation.
+ *
+ * The current state is published as an immutable, versioned snapshot: readers never lock and
+ * never observe a half-applied update. Updates are applied to a private copy and published with
+ * a compare-and-set, retrying against the newer snapshot if another update won the race; only
+ * the published version is persisted.
+ *
+ * By default every update is committed synchronously. In write-behind mode (see
+ * {@link #setWriteBehind(boolean)}) updates are published in memory immediately and bursts of
+ * updates are coalesced into a single durable write on a background thread.
+ *
+ * Several Google accounts can be kept side by side. The active account's state lives under the
+ * usual key; the others are parked under a per-subject key, and an index of known accounts,
+ * holding just their profile claims, lets them be listed without deserializing any state.
+ * Account changes are written along with the state, synchronously or write-behind alike, in an
+ * order that loses no tokens if the process dies part-way: a parked record is written before
+ * the state that no longer holds it, and deleted only after the state that does.
  */
 public class AuthStateManager {
 
@@ -46,61 +75,199 @@ public class AuthStateManager {
 
     private static final String TAG = "AuthStateManager";
 
-    private static final String STORE_NAME = "AuthState";
+    // the process-wide store, chosen once; guarded by AuthStateManager.class
+    private static AuthStateStore sStore;
+
     private static final String KEY_STATE = "state";
+    private static final String KEY_ACCOUNTS = "accounts";
+    private static final String KEY_ACTIVE_ACCOUNT = "active";
+    private static final String KEY_ACCOUNT_PREFIX = "account.";
+
+    private static final String[] PROFILE_CLAIMS =
+            {"sub", "email", "name", "given_name", "picture"};
+
+    private final AuthStateStore mStore;
+    private final AuthStateCodec mCodec = new AuthStateCodec();
+    private final ReentrantLock mStoreLock;
+    private final AtomicReference<Snapshot> mCurrentSnapshot;
+    private final AtomicReference<PendingWrite> mPendingWrite = new AtomicReference<>();
+    private final AtomicBoolean mWriteScheduled = new AtomicBoolean();
+    private final Executor mExecutor = Dispatcher.getDefault();
+
+    private volatile boolean mWriteBehind;
+    private volatile PersistenceListener mPersistenceListener;
+    // guarded by mStoreLock
+    private long mLastWrittenVersion;
 
-    private final SharedPreferences mPrefs;
-    private final ReentrantLock mPrefsLock;
-    private final AtomicReference<AuthState> mCurrentAuthState;
+    // guarded by mStoreLock, loaded on first use
+    private Map<String, JSONObject> mAccounts;
+    private String mActiveAccount;
+    // guarded by mStoreLock: parked records to write with the next state, by subject, where a
+    // null state deletes the record; and whether the index or active account changed
+    private final Map<String, AuthState> mParkedWrites = new LinkedHashMap<>();
+    private boolean mAccountsDirty;
+    private volatile String mTrackedIdToken;
 
     @AnyThread
     public static AuthStateManager getInstance(@NonNull Context context) {
         AuthStateManager manager = INSTANCE_REF.get().get();
         if (manager == null) {
-            manager = new AuthStateManager(context.getApplicationContext());
-            INSTANCE_REF.set(new WeakReference<>(manager));
+            synchronized (AuthStateManager.class) {
+                manager = INSTANCE_REF.get().get();
+                if (manager == null) {
+                    if (sStore == null) {
+                        sStore = new SharedPreferencesAuthStateStore(context);
+                    }
+                    manager = new AuthStateManager(sStore);
+                    INSTANCE_REF.set(new WeakReference<>(manager));
+                }
+            }
         }
 
         return manager;
     }
 
-    private AuthStateManager(Context context) {
-        mPrefs = context.getSharedPreferences(STORE_NAME, Context.MODE_PRIVATE);
-        mPrefsLock = new ReentrantLock();
-        mCurrentAuthState = new AtomicReference<>();
+    /**
+     * Returns the manager, backed by the given store. The store is a process-wide setting: every
+     * later call to {@link #getInstance(Context)} uses it too, and it cannot be changed once
+     * chosen, so it must be set before anything else gets the manager.
+     *
+     * @throws IllegalStateException if a different store is already in use.
+     */
+    @AnyThread
+    public static AuthStateManager getInstance(
+            @NonNull Context context,
+            @NonNull AuthStateStore store) {
+        synchronized (AuthStateManager.class) {
+            if (sStore != null && sStore != store) {
+                throw new IllegalStateException(
+                        "AuthStateManager is already backed by a different store");
+            }
+            sStore = store;
+        }
+        return getInstance(context);
+    }
+
+    private AuthStateManager(AuthStateStore store) {
+        mStore = store;
+        mStoreLock = new ReentrantLock();
+        mCurrentSnapshot = new AtomicReference<>();
     }
 
+    /**
+     * Returns the current state. The returned instance is the published snapshot itself, shared
+     * with every other caller, and {@link AuthState} has no read-only view, so it must not be
+     * modified: a change would be seen by those callers and stored with the next write. Use
+     * {@link #update(Mutation)}, which works on a private copy, instead.
+     *
+     * The manager never modifies a snapshot it returned, so it stays consistent while newer
+     * states are published, and once one is, changes to the old snapshot no longer reach the
+     * manager.
+     */
     @AnyThread
     @NonNull
     public AuthState getCurrent() {
-        if (mCurrentAuthState.get() != null) {
-            return mCurrentAuthState.get();
-        }
+        return getSnapshot().state;
+    }
 
-        AuthState state = readState();
-        if (mCurrentAuthState.compareAndSet(null, state)) {
-            return state;
-        } else {
-            return mCurrentAuthState.get();
-        }
+    /**
+     * Returns the version of the current state, which increases with every published update.
+     */
+    @AnyThread
+    public long getVersion() {
+        return getSnapshot().version;
     }
 
+    /**
+     * Publishes the given state, regardless of any concurrent update. The state must not be
+     * modified afterwards.
+     */
     @AnyThread
     @NonNull
     public AuthState replace(@NonNull AuthState state) {
-        writeState(state);
-        mCurrentAuthState.set(state);
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = getSnapshot();
+            next = new Snapshot(state, current.version + 1);
+        } while (!mCurrentSnapshot.compareAndSet(current, next));
+
+        publish(next);
         return state;
     }
 
+    /**
+     * Applies the mutation to a private copy of the current state and publishes the result,
+     * unless another update was published in the meantime, in which case the mutation is
+     * applied again to the newer state. The mutation may therefore run more than once and
+     * should have no side effects. If the mutation returns null, nothing is published and the
+     * state it was given a copy of is returned.
+     *
+     * Every attempt pays for one copy of the state. {@link AuthState} cannot be cloned, so the
+     * copy is a round trip through its JSON form, which costs about as much as deserializing the
+     * stored state; `AuthStateManagerBenchmark` in the benchmark module measures it. Prefer one
+     * update doing all the changes over several small ones.
+     */
+    @AnyThread
+    @NonNull
+    public AuthState update(@NonNull Mutation mutation) {
+        while (true) {
+            Snapshot current = getSnapshot();
+            AuthState updated = mutation.apply(copyOf(current.state));
+            if (updated == null) {
+                return current.state;
+            }
+            Snapshot next = new Snapshot(updated, current.version + 1);
+            if (mCurrentSnapshot.compareAndSet(current, next)) {
+                publish(next);
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * Enables or disables write-behind persistence. Disabling it does not flush pending writes;
+     * call {@link #flush()} for that.
+     */
+    @AnyThread
+    public void setWriteBehind(boolean writeBehind) {
+        mWriteBehind = writeBehind;
+    }
+
+    /**
+     * Sets a listener that is notified, on the writing thread, once a state has been durably
+     * written or failed to be written.
+     */
+    @AnyThread
+    public void setPersistenceListener(@Nullable PersistenceListener listener) {
+        mPersistenceListener = listener;
+    }
+
+    /**
+     * Blocks until the most recent state and account changes have been durably written. Does
+     * nothing if no write is pending.
+     */
+    @WorkerThread
+    public void flush() {
+        // pending writes are only taken under the lock, so once it is held no write can be
+        // half-way between the queue and the store
+        mStoreLock.lock();
+        try {
+            persistLocked(mPendingWrite.getAndSet(null));
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
+
     @AnyThread
     @NonNull
     public AuthState updateAfterAuthorization(
             @Nullable AuthorizationResponse response,
             @Nullable AuthorizationException ex) {
-        AuthState current = getCurrent();
-        current.update(response, ex);
-        return replace(current);
+        return update(state -> {
+            state.update(response, ex);
+            return state;
+        });
     }
 
     @AnyThread
@@ -108,9 +275,10 @@ public class AuthStateManager {
     public AuthState updateAfterTokenResponse(
             @Nullable TokenResponse response,
             @Nullable AuthorizationException ex) {
-        AuthState current = getCurrent();
-        current.update(response, ex);
-        return replace(current);
+        return update(state -> {
+            state.update(response, ex);
+            return state;
+        });
     }
 
     @AnyThread
@@ -118,52 +286,479 @@ public class AuthStateManager {
     public AuthState updateAfterRegistration(
             RegistrationResponse response,
             AuthorizationException ex) {
-        AuthState current = getCurrent();
         if (ex != null) {
-            return current;
+            return getCurrent();
         }
 
-        current.update(response);
-        return replace(current);
+        return update(state -> {
+            state.update(response);
+            return state;
+        });
     }
 
+    /**
+     * Returns the profile claims (`sub`, `email`, `name`, `given_name`, `picture`) of every
+     * known account, keyed by subject, in the order they were added.
+     */
     @AnyThread
     @NonNull
-    private AuthState readState() {
-        mPrefsLock.lock();
+    public Map<String, JSONObject> getAccounts() {
+        mStoreLock.lock();
         try {
-            String currentState = mPrefs.getString(KEY_STATE, null);
-            if (currentState == null) {
-                return new AuthState();
+            return Collections.unmodifiableMap(new LinkedHashMap<>(loadAccountsLocked()));
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the subject of the account whose state is current, or null if none is signed in.
+     */
+    @AnyThread
+    @Nullable
+    public String getActiveAccount() {
+        mStoreLock.lock();
+        try {
+            loadAccountsLocked();
+            return mActiveAccount;
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the given account current, parking the state of the active one. Only the two
+     * records involved are read and written; no network request is made.
+     *
+     * @throws IllegalArgumentException if the account is not known.
+     */
+    @AnyThread
+    @NonNull
+    public AuthState switchAccount(@NonNull String subject) {
+        mStoreLock.lock();
+        try {
+            loadAccountsLocked();
+            if (subject.equals(mActiveAccount)) {
+                return getCurrent();
+            }
+
+            AuthState next = readParkedLocked(subject);
+            if (next == null) {
+                throw new IllegalArgumentException("Unknown account: " + subject);
+            }
+
+            parkActiveAccountLocked();
+            setActiveAccountLocked(subject);
+            // the active account's state lives under KEY_STATE only
+            mParkedWrites.put(subject, null);
+            mTrackedIdToken = null;
+            return replace(next);
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
+
+    /**
+     * Parks the active account and makes an empty state, with the same service configuration,
+     * current, so that another account can be signed in.
+     */
+    @AnyThread
+    @NonNull
+    public AuthState detachActiveAccount() {
+        mStoreLock.lock();
+        try {
+            loadAccountsLocked();
+            AuthState current = getCurrent();
+            parkActiveAccountLocked();
+            setActiveAccountLocked(null);
+            mTrackedIdToken = null;
+            return replace(new AuthState(current.getAuthorizationServiceConfiguration()));
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the given account. Removing the active account does not clear the current state;
+     * callers replace it as part of signing out.
+     */
+    @AnyThread
+    public void removeAccount(@NonNull String subject) {
+        mStoreLock.lock();
+        try {
+            loadAccountsLocked();
+            if (mAccounts.remove(subject) != null) {
+                mAccountsDirty = true;
             }
+            mParkedWrites.put(subject, null);
+            if (subject.equals(mActiveAccount)) {
+                setActiveAccountLocked(null);
+                mTrackedIdToken = null;
+            }
+            // no state is published, so nothing else would write the change
+            if (mWriteBehind) {
+                scheduleDrain();
+            } else {
+                writeLocked(null);
+            }
+        } catch (IOException ex) {
+            Log.w(TAG, "Failed to remove account " + subject, ex);
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
 
+    /**
+     * Records the subject of a newly issued ID token as the active account, to be written with
+     * the state. The token is only decoded when it changes, and the index only rewritten when
+     * the profile does.
+     */
+    private void trackAccount(AuthState state) {
+        String idToken = state.getIdToken();
+        if (idToken == null || !state.isAuthorized() || idToken.equals(mTrackedIdToken)) {
+            return;
+        }
+
+        JSONObject claims;
+        try {
+            claims = Jwt.parse(idToken).getClaims();
+        } catch (JSONException ex) {
+            Log.w(TAG, "Failed to decode ID token, account not tracked", ex);
+            return;
+        }
+        String subject = claims.optString("sub");
+        if (subject.isEmpty()) {
+            return;
+        }
+
+        JSONObject profile = new JSONObject();
+        try {
+            for (String claim : PROFILE_CLAIMS) {
+                if (claims.has(claim)) {
+                    profile.put(claim, claims.get(claim));
+                }
+            }
+        } catch (JSONException ex) {
+            Log.w(TAG, "Failed to copy profile claims", ex);
+            return;
+        }
+
+        mStoreLock.lock();
+        try {
+            loadAccountsLocked();
+            JSONObject known = mAccounts.get(subject);
+            if (known == null || !known.toString().equals(profile.toString())) {
+                mAccounts.put(subject, profile);
+                mAccountsDirty = true;
+            }
+            if (!subject.equals(mActiveAccount)) {
+                setActiveAccountLocked(subject);
+            }
+            mTrackedIdToken = idToken;
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
+
+    private void parkActiveAccountLocked() {
+        AuthState current = getCurrent();
+        if (mActiveAccount != null && current.isAuthorized()) {
+            mParkedWrites.put(mActiveAccount, current);
+        }
+    }
+
+    @Nullable
+    private AuthState readParkedLocked(String subject) {
+        // a record parked in write-behind mode may not have reached the store yet
+        if (mParkedWrites.containsKey(subject)) {
+            return mParkedWrites.get(subject);
+        }
+        try {
+            return mCodec.read(mStore, KEY_ACCOUNT_PREFIX + subject);
+        } catch (IOException | JSONException ex) {
+            throw new IllegalStateException("Failed to read state of account " + subject, ex);
+        }
+    }
+
+    private Map<String, JSONObject> loadAccountsLocked() {
+        if (mAccounts != null) {
+            return mAccounts;
+        }
+
+        mAccounts = new LinkedHashMap<>();
+        String stored = null;
+        try {
+            mActiveAccount = mStore.read(KEY_ACTIVE_ACCOUNT);
+            stored = mStore.read(KEY_ACCOUNTS);
+            if (stored != null) {
+                JSONObject index = new JSONObject(stored);
+                Iterator<String> subjects = index.keys();
+                while (subjects.hasNext()) {
+                    String subject = subjects.next();
+                    mAccounts.put(subject, index.getJSONObject(subject));
+                }
+            }
+        } catch (IOException | JSONException ex) {
+            Log.w(TAG, "Failed to read account index - discarding", ex);
+        }
+
+        // the state is written first, so if the process died before the index and active
+        // account followed it, they are brought in line with it; this also indexes a state
+        // written before accounts were
+        AuthState current = getCurrent();
+        if (current.isAuthorized()) {
+            trackAccount(current);
+        } else if (mActiveAccount != null) {
+            setActiveAccountLocked(null);
+        }
+        return mAccounts;
+    }
+
+    /**
+     * Writes the state, if given, together with the account changes made since the last write.
+     * Parked records are written first, so that an account's tokens are never only in a state
+     * that has been overwritten; records of accounts that became active, or were removed, are
+     * deleted last, once the state holding them is durable.
+     */
+    private void writeLocked(@Nullable AuthStateCodec.Encoded state) throws IOException {
+        for (Map.Entry<String, AuthState> parked : mParkedWrites.entrySet()) {
+            if (parked.getValue() != null) {
+                mCodec.write(mStore, KEY_ACCOUNT_PREFIX + parked.getKey(),
+                        mCodec.encode(parked.getValue()));
+            }
+        }
+        if (state != null) {
+            mCodec.write(mStore, KEY_STATE, state);
+        }
+        if (mAccountsDirty) {
+            writeAccountsLocked();
+            mStore.write(KEY_ACTIVE_ACCOUNT, mActiveAccount);
+            mAccountsDirty = false;
+        }
+        for (Map.Entry<String, AuthState> parked : mParkedWrites.entrySet()) {
+            if (parked.getValue() == null) {
+                mCodec.write(mStore, KEY_ACCOUNT_PREFIX + parked.getKey(), null);
+            }
+        }
+        mParkedWrites.clear();
+    }
+
+    private boolean hasAccountWritesLocked() {
+        return mAccountsDirty || !mParkedWrites.isEmpty();
+    }
+
+    private void writeAccountsLocked() throws IOException {
+        JSONObject index = new JSONObject();
+        try {
+            for (Map.Entry<String, JSONObject> account : mAccounts.entrySet()) {
+                index.put(account.getKey(), account.getValue());
+            }
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Failed to serialize account index", ex);
+        }
+        mStore.write(KEY_ACCOUNTS, index.toString());
+    }
+
+    private void setActiveAccountLocked(@Nullable String subject) {
+        if (!TextUtils.equals(subject, mActiveAccount)) {
+            mActiveAccount = subject;
+            mAccountsDirty = true;
+        }
+    }
+
+    @AnyThread
+    @NonNull
+    private AuthState readState() {
+        mStoreLock.lock();
+        try {
+            AuthState state;
             try {
-                return AuthState.jsonDeserialize(currentState);
+                state = mCodec.read(mStore, KEY_STATE);
+            } catch (IOException ex) {
+                Log.w(TAG, "Failed to read stored auth state - discarding", ex);
+                return new AuthState();
             } catch (JSONException ex) {
                 Log.w(TAG, "Failed to deserialize stored auth state - discarding");
                 return new AuthState();
             }
+            return state != null ? state : new AuthState();
         } finally {
-            mPrefsLock.unlock();
+            mStoreLock.unlock();
         }
     }
 
     @AnyThread
-    private void writeState(@Nullable AuthState state) {
-        mPrefsLock.lock();
+    @NonNull
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = mCurrentSnapshot.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        Snapshot loaded = new Snapshot(readState(), 0L);
+        if (mCurrentSnapshot.compareAndSet(null, loaded)) {
+            return loaded;
+        } else {
+            return mCurrentSnapshot.get();
+        }
+    }
+
+    // the JSON tree is handed straight back, without being rendered to and parsed from a string
+    @NonNull
+    private static AuthState copyOf(@NonNull AuthState state) {
         try {
-            SharedPreferences.Editor editor = mPrefs.edit();
-            if (state == null) {
-                editor.remove(KEY_STATE);
-            } else {
-                editor.putString(KEY_STATE, state.jsonSerializeString());
+            return AuthState.jsonDeserialize(state.jsonSerialize());
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Failed to copy auth state", ex);
+        }
+    }
+
+    /**
+     * Records the account and persists a snapshot that has just won the compare-and-set.
+     */
+    @AnyThread
+    private void publish(@NonNull Snapshot snapshot) {
+        trackAccount(snapshot.state);
+        if (mWriteBehind) {
+            enqueueWrite(snapshot);
+        } else {
+            writeState(snapshot);
+        }
+    }
+
+    @AnyThread
+    private void enqueueWrite(@NonNull Snapshot snapshot) {
+        synchronized (mPendingWrite) {
+            // an update racing this one may already have queued a newer version
+            PendingWrite pending = mPendingWrite.get();
+            if (pending == null || pending.version < snapshot.version) {
+                mPendingWrite.set(new PendingWrite(snapshot.state, snapshot.version));
+            }
+        }
+        scheduleDrain();
+    }
+
+    @AnyThread
+    private void scheduleDrain() {
+        if (mWriteScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(this::drainPendingWrite);
+        }
+    }
+
+    @WorkerThread
+    private void drainPendingWrite() {
+        mWriteScheduled.set(false);
+        mStoreLock.lock();
+        try {
+            persistLocked(mPendingWrite.getAndSet(null));
+        } finally {
+            mStoreLock.unlock();
+        }
+    }
+
+    private void persistLocked(@Nullable PendingWrite pending) {
+        if (pending == null || pending.version <= mLastWrittenVersion) {
+            // no state to write, or a newer one has already been written
+            if (hasAccountWritesLocked()) {
+                try {
+                    writeLocked(null);
+                } catch (IOException ex) {
+                    Log.w(TAG, "Failed to write accounts to store", ex);
+                }
+            }
+            return;
+        }
+        mLastWrittenVersion = pending.version;
+
+        PersistenceListener listener = mPersistenceListener;
+        Metrics.Sample sample = Metrics.begin(GSignInEvent.Phase.PERSIST);
+        try {
+            // snapshots are immutable, so they can be serialized off the calling thread
+            AuthStateCodec.Encoded encoded = mCodec.encode(pending.state);
+            sample.setBytes(encoded.state.length());
+            writeLocked(encoded);
+            sample.success();
+        } catch (IOException ex) {
+            Log.w(TAG, "Failed to write state to store", ex);
+            sample.failure(ex);
+            if (listener != null) {
+                listener.onPersistFailed(pending.state, ex);
             }
+            return;
+        }
+
+        if (listener != null) {
+            listener.onPersisted(pending.state);
+        }
+    }
 
-            if (!editor.commit()) {
-                throw new IllegalStateException("Failed to write state to shared prefs");
+    @AnyThread
+    private void writeState(@NonNull Snapshot snapshot) {
+        synchronized (mPendingWrite) {
+            // supersede any older write-behind update still waiting to be written
+            PendingWrite pending = mPendingWrite.get();
+            if (pending != null && pending.version <= snapshot.version) {
+                mPendingWrite.set(null);
+            }
+        }
+
+        mStoreLock.lock();
+        try {
+            if (snapshot.version <= mLastWrittenVersion) {
+                // a newer version won the race to the store
+                return;
+            }
+            mLastWrittenVersion = snapshot.version;
+
+            Metrics.Sample sample = Metrics.begin(GSignInEvent.Phase.PERSIST);
+            try {
+                AuthStateCodec.Encoded encoded = mCodec.encode(snapshot.state);
+                writeLocked(encoded);
+                sample.setBytes(encoded.state.length()).success();
+            } catch (IOException ex) {
+                sample.failure(ex);
+                throw new IllegalStateException("Failed to write state to store", ex);
             }
         } finally {
-            mPrefsLock.unlock();
+            mStoreLock.unlock();
+        }
+    }
+
+    /**
+     * Notified when a write-behind update reaches, or fails to reach, durable storage.
+     */
+    public interface PersistenceListener {
+        void onPersisted(@NonNull AuthState state);
+
+        void onPersistFailed(@NonNull AuthState state, @NonNull Exception e);
+    }
+
+    /**
+     * Produces the next state from a private copy of the current one, which it may modify and
+     * return, or return a different state in its place, or null to leave the state unchanged.
+     */
+    public interface Mutation {
+        @Nullable
+        AuthState apply(@NonNull AuthState copy);
+    }
+
+    private static final class Snapshot {
+        final AuthState state;
+        final long version;
+
+        Snapshot(AuthState state, long version) {
+            this.state = state;
+            this.version = version;
+        }
+    }
+
+    private static final class PendingWrite {
+        final AuthState state;
+        final long version;
+
+        PendingWrite(AuthState state, long version) {
+            this.state = state;
+            this.version = version;
         }
     }
 }
@@ -0,0 +1,29 @@
+package net.openid.appauthdemo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+
+/**
+ * Durable key-value storage for the serialized records kept by {@link AuthStateManager}.
+ * Implementations must be thread-safe; {@link AuthStateManager} serializes writes itself, but
+ * reads may happen concurrently with them.
+ */
+public interface AuthStateStore {
+
+    /**
+     * Returns the value stored under `key`, or null if there is none.
+     */
+    @WorkerThread
+    @Nullable
+    String read(@NonNull String key) throws IOException;
+
+    /**
+     * Durably stores `value` under `key`, or removes the key if `value` is null. When this
+     * returns, the value must survive a process restart.
+     */
+    @WorkerThread
+    void write(@NonNull String key, @Nullable String value) throws IOException;
+}
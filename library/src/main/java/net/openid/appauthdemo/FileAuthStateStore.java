@@ -0,0 +1,87 @@
+package net.openid.appauthdemo;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * An {@link AuthStateStore} that keeps each record in its own small file. A write goes to a
+ * temporary file which is synced and then atomically renamed over the previous version, so a
+ * crash mid-write never leaves a torn record behind, and only the changed record is rewritten.
+ */
+public final class FileAuthStateStore implements AuthStateStore {
+
+    public static final String DEFAULT_DIRECTORY = "gappauth";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+
+    public FileAuthStateStore(@NonNull Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), DEFAULT_DIRECTORY));
+    }
+
+    public FileAuthStateStore(@NonNull File directory) {
+        mDirectory = directory;
+    }
+
+    @Nullable
+    @Override
+    public String read(@NonNull String key) throws IOException {
+        File file = fileFor(key);
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            return source.readString(StandardCharsets.UTF_8);
+        } catch (FileNotFoundException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void write(@NonNull String key, @Nullable String value) throws IOException {
+        File file = fileFor(key);
+        if (value == null) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+            return;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Failed to create " + mDirectory);
+        }
+
+        File tmp = new File(mDirectory, file.getName() + TMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            BufferedSink sink = Okio.buffer(Okio.sink(out));
+            sink.writeString(value, StandardCharsets.UTF_8);
+            sink.flush();
+            out.getFD().sync();
+        }
+
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp + " to " + file);
+        }
+    }
+
+    private File fileFor(String key) {
+        try {
+            return new File(mDirectory, URLEncoder.encode(key, "UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("UTF-8 is not supported", ex);
+        }
+    }
+}
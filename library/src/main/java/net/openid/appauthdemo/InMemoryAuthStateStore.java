@@ -0,0 +1,31 @@
+package net.openid.appauthdemo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link AuthStateStore} that keeps records in memory only, for tests and for ephemeral
+ * sessions that must not outlive the process.
+ */
+public final class InMemoryAuthStateStore implements AuthStateStore {
+
+    private final Map<String, String> mValues = new ConcurrentHashMap<>();
+
+    @Nullable
+    @Override
+    public String read(@NonNull String key) {
+        return mValues.get(key);
+    }
+
+    @Override
+    public void write(@NonNull String key, @Nullable String value) {
+        if (value == null) {
+            mValues.remove(key);
+        } else {
+            mValues.put(key, value);
+        }
+    }
+}
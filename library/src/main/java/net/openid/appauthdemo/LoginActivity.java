@@ -54,12 +54,12 @@ import net.openid.appauth.ResponseTypeValues;
 import net.openid.appauth.browser.AnyBrowserMatcher;
 import net.openid.appauth.browser.BrowserMatcher;
 
+import org.gappauth.sdk.Dispatcher;
 import org.gappauth.sdk.R;
 
 import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -103,7 +103,7 @@ public final class LoginActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        mExecutor = Executors.newSingleThreadExecutor();
+        mExecutor = Dispatcher.newSerialExecutor();
         mAuthStateManager = AuthStateManager.getInstance(this);
         mConfiguration = Configuration.getInstance(this, "");
 
@@ -149,7 +149,7 @@ public final class LoginActivity extends AppCompatActivity {
     protected void onStart() {
         super.onStart();
         if (mExecutor.isShutdown()) {
-            mExecutor = Executors.newSingleThreadExecutor();
+            mExecutor = Dispatcher.newSerialExecutor();
         }
     }
 
@@ -0,0 +1,48 @@
+package net.openid.appauthdemo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * The default {@link AuthStateStore}, backed by a shared preferences file. Every write rewrites
+ * and fsyncs the whole file, so this is best suited to a small number of small records.
+ */
+public final class SharedPreferencesAuthStateStore implements AuthStateStore {
+
+    public static final String DEFAULT_NAME = "AuthState";
+
+    private final SharedPreferences mPrefs;
+
+    public SharedPreferencesAuthStateStore(@NonNull Context context) {
+        this(context, DEFAULT_NAME);
+    }
+
+    public SharedPreferencesAuthStateStore(@NonNull Context context, @NonNull String name) {
+        mPrefs = context.getApplicationContext().getSharedPreferences(name, Context.MODE_PRIVATE);
+    }
+
+    @Nullable
+    @Override
+    public String read(@NonNull String key) {
+        return mPrefs.getString(key, null);
+    }
+
+    @Override
+    public void write(@NonNull String key, @Nullable String value) throws IOException {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+
+        if (!editor.commit()) {
+            throw new IOException("Failed to write " + key + " to shared prefs");
+        }
+    }
+}
@@ -43,7 +43,9 @@ import net.openid.appauth.EndSessionRequest;
 import net.openid.appauth.TokenRequest;
 import net.openid.appauth.TokenResponse;
 
+import org.gappauth.sdk.Dispatcher;
 import org.gappauth.sdk.R;
+import org.gappauth.sdk.TokenRefreshCoordinator;
 import org.joda.time.format.DateTimeFormat;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -52,7 +54,6 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
 
 import okio.Okio;
@@ -83,7 +84,7 @@ public class TokenActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
 
         mStateManager = AuthStateManager.getInstance(this);
-        mExecutor = Executors.newSingleThreadExecutor();
+        mExecutor = Dispatcher.newSerialExecutor();
         mConfiguration = Configuration.getInstance(this, "");
 
         Configuration config = Configuration.getInstance(this, "");
@@ -120,7 +121,7 @@ public class TokenActivity extends AppCompatActivity {
         super.onStart();
 
         if (mExecutor.isShutdown()) {
-            mExecutor = Executors.newSingleThreadExecutor();
+            mExecutor = Dispatcher.newSerialExecutor();
         }
 
         if (mStateManager.getCurrent().isAuthorized()) {
@@ -329,14 +330,15 @@ public class TokenActivity extends AppCompatActivity {
     }
 
     /**
-     * Demonstrates the use of {@link AuthState#performActionWithFreshTokens} to retrieve
-     * user info from the IDP's user info endpoint. This callback will negotiate a new access
-     * token / id token for use in a follow-up action, or provide an error if this fails.
+     * Demonstrates the use of {@link TokenRefreshCoordinator#performActionWithFreshTokens} to
+     * retrieve user info from the IDP's user info endpoint. This callback will negotiate a new
+     * access token / id token for use in a follow-up action, or provide an error if this fails.
      */
     @MainThread
     private void fetchUserInfo() {
         displayLoading("Fetching user info");
-        mStateManager.getCurrent().performActionWithFreshTokens(mAuthService, this::fetchUserInfo);
+        TokenRefreshCoordinator.getInstance(this)
+                .performActionWithFreshTokens(mAuthService, this::fetchUserInfo);
     }
 
     @MainThread
@@ -0,0 +1,140 @@
+package org.gappauth.sdk;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.browser.BrowserDescriptor;
+import net.openid.appauth.browser.BrowserMatcher;
+import net.openid.appauth.browser.BrowserSelector;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Caches, per process, the browser {@link BrowserSelector} picks for each {@link BrowserMatcher},
+ * including whether it supports Custom Tabs, until a package is added, removed or changed.
+ *
+ * This does not spare the query made while constructing an
+ * {@link net.openid.appauth.AuthorizationService}: AppAuth selects a browser there itself and has
+ * no public way to pass one in, so the service is only pinned to the cached browser. What the
+ * cache saves are the lookups made to tell whether the browser changed, which every live client
+ * makes after each package change.
+ */
+public final class BrowserCache {
+
+    private static final String TAG = "BrowserCache";
+
+    private static volatile BrowserCache sInstance;
+
+    private final Context mContext;
+    private final Map<BrowserMatcher, Resolution> mResolutions = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<OnBrowsersChangedListener> mListeners =
+            new CopyOnWriteArrayList<>();
+    private final Object mLock = new Object();
+    // bumped by invalidate(), so that a resolution made before it is not cached after it;
+    // guarded by mLock
+    private int mGeneration;
+
+    @AnyThread
+    public static BrowserCache getInstance(@NonNull Context context) {
+        BrowserCache cache = sInstance;
+        if (cache == null) {
+            synchronized (BrowserCache.class) {
+                cache = sInstance;
+                if (cache == null) {
+                    cache = new BrowserCache(context.getApplicationContext());
+                    sInstance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private BrowserCache(Context context) {
+        mContext = context;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidate();
+            }
+        }, filter);
+    }
+
+    /**
+     * Returns the browser the matcher selects, or null if no installed browser matches. Queries
+     * the package manager only if the result is not cached yet.
+     */
+    @WorkerThread
+    @Nullable
+    public BrowserDescriptor resolve(@NonNull BrowserMatcher matcher) {
+        Resolution resolution = mResolutions.get(matcher);
+        if (resolution == null) {
+            int generation;
+            synchronized (mLock) {
+                generation = mGeneration;
+            }
+            resolution = new Resolution(BrowserSelector.select(mContext, matcher));
+            synchronized (mLock) {
+                if (generation == mGeneration) {
+                    mResolutions.put(matcher, resolution);
+                }
+            }
+        }
+        return resolution.browser;
+    }
+
+    /**
+     * Registers a listener notified, on the main thread, when installed packages change and
+     * cached resolutions have been dropped. Adding a listener twice has no effect.
+     */
+    @AnyThread
+    public void addListener(@NonNull OnBrowsersChangedListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    @AnyThread
+    public void removeListener(@NonNull OnBrowsersChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @MainThread
+    private void invalidate() {
+        Log.d(TAG, "Installed packages changed, dropping cached browsers");
+        synchronized (mLock) {
+            mGeneration++;
+            mResolutions.clear();
+        }
+        for (OnBrowsersChangedListener listener : mListeners) {
+            listener.onBrowsersChanged();
+        }
+    }
+
+    public interface OnBrowsersChangedListener {
+        void onBrowsersChanged();
+    }
+
+    private static final class Resolution {
+        @Nullable
+        final BrowserDescriptor browser;
+
+        Resolution(@Nullable BrowserDescriptor browser) {
+            this.browser = browser;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.gappauth.sdk;
+
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal parser for the parts of a `Cache-Control` response header the SDK's caches care about.
+ */
+final class CacheControl {
+
+    private final boolean mNoStore;
+    private final boolean mNoCache;
+    private final long mMaxAgeMs;
+
+    private CacheControl(boolean noStore, boolean noCache, long maxAgeMs) {
+        mNoStore = noStore;
+        mNoCache = noCache;
+        mMaxAgeMs = maxAgeMs;
+    }
+
+    static CacheControl parse(@Nullable String header, long defaultMaxAgeMs) {
+        boolean noStore = false;
+        boolean noCache = false;
+        long maxAgeMs = defaultMaxAgeMs;
+        if (header == null) {
+            return new CacheControl(false, false, maxAgeMs);
+        }
+
+        for (String directive : header.split(",")) {
+            String value = directive.trim().toLowerCase(Locale.US);
+            if (value.equals("no-store")) {
+                noStore = true;
+            } else if (value.equals("no-cache")) {
+                noCache = true;
+            } else if (value.startsWith("max-age=")) {
+                try {
+                    maxAgeMs = TimeUnit.SECONDS.toMillis(
+                            Long.parseLong(value.substring("max-age=".length()).trim()));
+                } catch (NumberFormatException ignored) {
+                    // keep the default
+                }
+            }
+        }
+        return new CacheControl(noStore, noCache, maxAgeMs);
+    }
+
+    boolean isNoStore() {
+        return mNoStore;
+    }
+
+    /**
+     * Returns the absolute time, in milliseconds, after which the response must be revalidated.
+     */
+    long expiresAt(long now) {
+        return mNoCache ? now : now + mMaxAgeMs;
+    }
+}
@@ -0,0 +1,140 @@
+package org.gappauth.sdk;
+
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the health of one endpoint. After {@link #FAILURE_THRESHOLD} consecutive transient
+ * failures the circuit opens and requests fail fast for {@link #OPEN_DURATION_MS}; then a
+ * single trial request is let through, which closes the circuit if it succeeds. Each endpoint
+ * also has a retry budget, so that retries cannot multiply the load on a struggling server.
+ */
+public final class CircuitBreaker {
+
+    private static final String TAG = "CircuitBreaker";
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_DURATION_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int RETRY_BUDGET = 10;
+    private static final long RETRY_BUDGET_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ConcurrentMap<String, CircuitBreaker> sBreakers =
+            new ConcurrentHashMap<>();
+
+    private final String mEndpoint;
+
+    private int mConsecutiveFailures;
+    private long mOpenUntil;
+    private boolean mTrialInFlight;
+    private long mRetryWindowStart;
+    private int mRetriesInWindow;
+
+    /**
+     * Returns the breaker shared by all requests to the given endpoint, ignoring its query.
+     */
+    @AnyThread
+    @NonNull
+    public static CircuitBreaker forEndpoint(@NonNull Uri endpoint) {
+        String key = endpoint.getScheme() + "://" + endpoint.getAuthority() + endpoint.getPath();
+        CircuitBreaker breaker = sBreakers.get(key);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(key);
+            breaker = sBreakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    private CircuitBreaker(String endpoint) {
+        mEndpoint = endpoint;
+    }
+
+    /**
+     * Whether a request may be made now. While the circuit is half-open, only the first caller
+     * is allowed through.
+     */
+    public synchronized boolean allowRequest(long now) {
+        if (mOpenUntil == 0L) {
+            return true;
+        }
+        if (now < mOpenUntil || mTrialInFlight) {
+            return false;
+        }
+        mTrialInFlight = true;
+        return true;
+    }
+
+    /**
+     * Records that the endpoint answered, even if with a client error.
+     */
+    public synchronized void onSuccess() {
+        if (mOpenUntil != 0L) {
+            Log.i(TAG, "Circuit closed for " + mEndpoint);
+        }
+        mConsecutiveFailures = 0;
+        mOpenUntil = 0L;
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Records a transient failure, opening the circuit once the threshold is reached.
+     */
+    public synchronized void onFailure(long now) {
+        mConsecutiveFailures++;
+        mTrialInFlight = false;
+        if (mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            if (mOpenUntil == 0L || now >= mOpenUntil) {
+                Log.w(TAG, "Circuit opened for " + mEndpoint);
+            }
+            mOpenUntil = now + OPEN_DURATION_MS;
+        }
+    }
+
+    /**
+     * Records that a request let through was not made after all, so that another caller may
+     * make the half-open trial.
+     */
+    synchronized void onAbandoned() {
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Takes one retry from the endpoint's budget, returning false if it is exhausted.
+     */
+    public synchronized boolean tryAcquireRetry(long now) {
+        if (now - mRetryWindowStart >= RETRY_BUDGET_WINDOW_MS) {
+            mRetryWindowStart = now;
+            mRetriesInWindow = 0;
+        }
+        if (mRetriesInWindow >= RETRY_BUDGET) {
+            return false;
+        }
+        mRetriesInWindow++;
+        return true;
+    }
+
+    /**
+     * Thrown instead of making a request while the endpoint's circuit is open.
+     */
+    public static final class CircuitOpenException extends IOException {
+        CircuitOpenException(String endpoint) {
+            super("Circuit open for " + endpoint + ", failing fast");
+        }
+    }
+
+    @NonNull
+    CircuitOpenException newOpenException() {
+        return new CircuitOpenException(mEndpoint);
+    }
+}
@@ -0,0 +1,350 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.AuthorizationServiceDiscovery;
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import org.gappauth.sdk.entity.GSignInEvent;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * A disk-backed cache of parsed OpenID discovery documents.
+ *
+ * A cached configuration is handed to the caller straight away, even when it is stale, so that
+ * sign-in can proceed without a network round-trip (or while offline). Stale entries are
+ * revalidated in the background with a conditional request, honouring the `Cache-Control` and
+ * `ETag` headers returned by the discovery endpoint.
+ *
+ * The cache is shared by the whole process, and at most one request per discovery URI is in
+ * flight at a time: callers arriving while the document is being fetched wait for that fetch,
+ * and callers arriving after it completed are served the memoized configuration.
+ */
+public final class DiscoveryCache {
+
+    private static final String TAG = "DiscoveryCache";
+
+    private static final String PREFS_NAME = "discovery";
+    private static final String KEY_CONFIG = "config";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_EXPIRES_AT = "expires_at";
+
+    private static final long DEFAULT_MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static volatile DiscoveryCache sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    // callbacks waiting for the fetch in flight for each discovery URI, guarded by itself
+    private final Map<String, List<AuthorizationServiceConfiguration.RetrieveConfigurationCallback>>
+            mInFlight = new HashMap<>();
+
+    @AnyThread
+    public static DiscoveryCache getInstance(@NonNull Context context) {
+        DiscoveryCache cache = sInstance;
+        if (cache == null) {
+            synchronized (DiscoveryCache.class) {
+                cache = sInstance;
+                if (cache == null) {
+                    cache = new DiscoveryCache(context.getApplicationContext());
+                    sInstance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private DiscoveryCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Retrieves the service configuration for the given discovery URI. A cached configuration is
+     * delivered synchronously on the calling thread; otherwise the document is fetched and the
+     * result is delivered on the main thread, as with
+     * {@link AuthorizationServiceConfiguration#fetchFromUrl}. If the document is already being
+     * fetched, the callback is invoked with the result of that fetch.
+     */
+    @AnyThread
+    public void fetch(
+            @NonNull Uri discoveryUri,
+            @NonNull AuthorizationServiceConfiguration.RetrieveConfigurationCallback callback,
+            @NonNull ConnectionBuilder connectionBuilder,
+            @NonNull Executor executor) {
+        Entry entry = getEntry(discoveryUri);
+        if (entry != null) {
+            Log.d(TAG, "Serving cached discovery document for " + discoveryUri);
+            Metrics.begin(GSignInEvent.Phase.DISCOVERY).setCacheHit(true).success();
+            callback.onFetchConfigurationCompleted(entry.config, null);
+            if (entry.isExpired(System.currentTimeMillis())
+                    && joinOrLead(discoveryUri, null)) {
+                executor.execute(() -> revalidate(
+                        discoveryUri, connectionBuilder, Metrics.Sample.NONE));
+            }
+            return;
+        }
+
+        if (joinOrLead(discoveryUri, callback)) {
+            Metrics.Sample sample = Metrics.begin(GSignInEvent.Phase.DISCOVERY);
+            executor.execute(() -> revalidate(discoveryUri, connectionBuilder, sample));
+        } else {
+            Log.d(TAG, "Joining in-flight fetch of " + discoveryUri);
+        }
+    }
+
+    /**
+     * Registers the callback with the fetch in flight for the URI, returning true if there is
+     * none and the caller should start it.
+     */
+    private boolean joinOrLead(
+            Uri discoveryUri,
+            @Nullable AuthorizationServiceConfiguration.RetrieveConfigurationCallback callback) {
+        String key = discoveryUri.toString();
+        synchronized (mInFlight) {
+            List<AuthorizationServiceConfiguration.RetrieveConfigurationCallback> waiters =
+                    mInFlight.get(key);
+            boolean lead = waiters == null;
+            if (lead) {
+                waiters = new ArrayList<>();
+                mInFlight.put(key, waiters);
+            }
+            if (callback != null) {
+                waiters.add(callback);
+            }
+            return lead;
+        }
+    }
+
+    @Nullable
+    private Entry getEntry(Uri discoveryUri) {
+        String key = discoveryUri.toString();
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        String stored = mPrefs.getString(key, null);
+        if (stored == null) {
+            return null;
+        }
+
+        try {
+            entry = Entry.fromJson(new JSONObject(stored));
+            mEntries.put(key, entry);
+            return entry;
+        } catch (JSONException ex) {
+            Log.w(TAG, "Failed to deserialize cached discovery document - discarding", ex);
+            mPrefs.edit().remove(key).apply();
+            return null;
+        }
+    }
+
+    @WorkerThread
+    private void revalidate(
+            Uri discoveryUri,
+            ConnectionBuilder connectionBuilder,
+            Metrics.Sample sample) {
+        Entry cached = getEntry(discoveryUri);
+        AuthorizationServiceConfiguration config = null;
+        AuthorizationException error = null;
+        try {
+            config = load(discoveryUri, connectionBuilder, cached, sample);
+        } catch (IOException ex) {
+            Log.e(TAG, "Network error when retrieving discovery document", ex);
+            error = AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.NETWORK_ERROR, ex);
+        } catch (JSONException ex) {
+            Log.e(TAG, "Error parsing discovery document", ex);
+            error = AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+        } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+            Log.e(TAG, "Malformed discovery document", ex);
+            error = AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.INVALID_DISCOVERY_DOCUMENT, ex);
+        }
+
+        if (error != null) {
+            sample.failure(error);
+        } else {
+            sample.success();
+        }
+
+        // the entry is stored by now, so callers no longer joining this fetch find it cached
+        List<AuthorizationServiceConfiguration.RetrieveConfigurationCallback> waiters;
+        synchronized (mInFlight) {
+            waiters = mInFlight.remove(discoveryUri.toString());
+        }
+        if (waiters == null || waiters.isEmpty()) {
+            return;
+        }
+
+        AuthorizationServiceConfiguration result = config;
+        AuthorizationException resultError = error;
+        Dispatcher.postToMainThread(() -> {
+            for (AuthorizationServiceConfiguration.RetrieveConfigurationCallback waiter
+                    : waiters) {
+                waiter.onFetchConfigurationCompleted(result, resultError);
+            }
+        });
+    }
+
+    @WorkerThread
+    private AuthorizationServiceConfiguration load(
+            Uri discoveryUri,
+            ConnectionBuilder connectionBuilder,
+            @Nullable Entry cached,
+            Metrics.Sample sample)
+            throws IOException, JSONException, AuthorizationServiceDiscovery.MissingArgumentException {
+        Response response = RetryPolicy.getDefault().execute(discoveryUri,
+                () -> request(discoveryUri, connectionBuilder, cached, sample));
+        long now = System.currentTimeMillis();
+
+        if (response.body == null && cached != null) {
+            Log.d(TAG, "Discovery document not modified");
+            sample.setCacheHit(true);
+            store(discoveryUri,
+                    new Entry(cached.config, cached.etag, response.cacheControl.expiresAt(now)),
+                    response.cacheControl);
+            return cached.config;
+        }
+
+        AuthorizationServiceConfiguration config = new AuthorizationServiceConfiguration(
+                new AuthorizationServiceDiscovery(new JSONObject(response.body)));
+        store(discoveryUri,
+                new Entry(config, response.etag, response.cacheControl.expiresAt(now)),
+                response.cacheControl);
+        return config;
+    }
+
+    /**
+     * Makes one conditional request for the document. The returned body is null if the cached
+     * copy is still current.
+     */
+    @WorkerThread
+    private Response request(
+            Uri discoveryUri,
+            ConnectionBuilder connectionBuilder,
+            @Nullable Entry cached,
+            Metrics.Sample sample) throws IOException {
+        HttpURLConnection conn = connectionBuilder.openConnection(discoveryUri);
+        try {
+            conn.setRequestMethod("GET");
+            conn.setDoInput(true);
+            if (cached != null && cached.etag != null) {
+                conn.setRequestProperty("If-None-Match", cached.etag);
+            }
+            conn.connect();
+
+            int code = conn.getResponseCode();
+            CacheControl cacheControl =
+                    CacheControl.parse(conn.getHeaderField("Cache-Control"), DEFAULT_MAX_AGE_MS);
+
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                return new Response(null, cached.etag, cacheControl);
+            }
+
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(code, "Unexpected response code " + code
+                        + " when retrieving discovery document");
+            }
+
+            String body;
+            try (BufferedSource source =
+                         Okio.buffer(sample.count(Okio.source(conn.getInputStream())))) {
+                body = source.readString(StandardCharsets.UTF_8);
+            }
+            return new Response(body, conn.getHeaderField("ETag"), cacheControl);
+        } finally {
+            HttpConnections.release(conn);
+        }
+    }
+
+    private void store(Uri discoveryUri, Entry entry, CacheControl cacheControl) {
+        String key = discoveryUri.toString();
+        mEntries.put(key, entry);
+        if (cacheControl.isNoStore()) {
+            mPrefs.edit().remove(key).apply();
+            return;
+        }
+
+        try {
+            mPrefs.edit().putString(key, entry.toJson().toString()).apply();
+        } catch (JSONException ex) {
+            Log.w(TAG, "Failed to serialize discovery document", ex);
+        }
+    }
+
+    private static final class Response {
+        @Nullable
+        final String body;
+        @Nullable
+        final String etag;
+        final CacheControl cacheControl;
+
+        Response(@Nullable String body, @Nullable String etag, CacheControl cacheControl) {
+            this.body = body;
+            this.etag = etag;
+            this.cacheControl = cacheControl;
+        }
+    }
+
+    private static final class Entry {
+        final AuthorizationServiceConfiguration config;
+        @Nullable
+        final String etag;
+        final long expiresAt;
+
+        Entry(AuthorizationServiceConfiguration config, @Nullable String etag, long expiresAt) {
+            this.config = config;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_CONFIG, config.toJson());
+            if (etag != null) {
+                json.put(KEY_ETAG, etag);
+            }
+            json.put(KEY_EXPIRES_AT, expiresAt);
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            return new Entry(
+                    AuthorizationServiceConfiguration.fromJson(json.getJSONObject(KEY_CONFIG)),
+                    json.has(KEY_ETAG) ? json.getString(KEY_ETAG) : null,
+                    json.optLong(KEY_EXPIRES_AT, 0L));
+        }
+    }
+}
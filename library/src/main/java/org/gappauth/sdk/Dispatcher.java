@@ -0,0 +1,106 @@
+package org.gappauth.sdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The library-wide executor for network and persistence work. Threads are daemons and are
+ * released after {@link #KEEP_ALIVE_SECONDS} of inactivity, so the pool costs nothing while the
+ * SDK is idle and the thread count stays bounded however many sign-ins are started.
+ */
+public final class Dispatcher {
+
+    public static final int DEFAULT_MAX_THREADS = 4;
+    public static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static volatile ExecutorService sDefault;
+
+    private Dispatcher() {
+        // no need to construct instances
+    }
+
+    @AnyThread
+    @NonNull
+    public static ExecutorService getDefault() {
+        ExecutorService executor = sDefault;
+        if (executor == null) {
+            synchronized (Dispatcher.class) {
+                executor = sDefault;
+                if (executor == null) {
+                    executor = newBoundedExecutor(DEFAULT_MAX_THREADS);
+                    sDefault = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Creates an executor with at most `maxThreads` daemon threads, each of which is released
+     * after being idle for {@link #KEEP_ALIVE_SECONDS}.
+     */
+    @NonNull
+    public static ExecutorService newBoundedExecutor(int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxThreads,
+                maxThreads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor running its tasks one at a time, in the order they were submitted, on
+     * a daemon thread released when idle. Unlike the shared pool it can be shut down, so that a
+     * screen can drop its pending work when it stops.
+     */
+    @NonNull
+    public static ExecutorService newSerialExecutor() {
+        return newBoundedExecutor(1);
+    }
+
+    @AnyThread
+    public static void runOnMainThread(@NonNull Runnable runnable) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            runnable.run();
+        } else {
+            MAIN_HANDLER.post(runnable);
+        }
+    }
+
+    @AnyThread
+    public static void postToMainThread(@NonNull Runnable runnable) {
+        MAIN_HANDLER.post(runnable);
+    }
+
+    @AnyThread
+    public static void postToMainThreadDelayed(@NonNull Runnable runnable, long delayMs) {
+        MAIN_HANDLER.postDelayed(runnable, delayMs);
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "GAppAuth-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.gappauth.sdk;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Helpers for the SDK's {@link HttpURLConnection} requests.
+ */
+final class HttpConnections {
+
+    private HttpConnections() {
+    }
+
+    /**
+     * Releases the connection once the response has been handled, whatever its status. The
+     * response stream is closed rather than the connection disconnected, so that a connection
+     * whose response was fully read can go back to the platform's keep-alive pool; a connection
+     * that cannot be released that way is disconnected.
+     */
+    static void release(@NonNull HttpURLConnection conn) {
+        try {
+            InputStream stream = conn.getErrorStream();
+            if (stream == null) {
+                stream = conn.getInputStream();
+            }
+            stream.close();
+        } catch (IOException | RuntimeException ex) {
+            conn.disconnect();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.gappauth.sdk;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an endpoint answers with an unexpected HTTP status code.
+ */
+public final class HttpStatusException extends IOException {
+
+    private final int mStatusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        mStatusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * Whether the status indicates a condition that may clear up by itself: a server error or
+     * rate limiting.
+     */
+    public boolean isTransient() {
+        return mStatusCode >= 500 || mStatusCode == 429;
+    }
+}
@@ -0,0 +1,310 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Verifies Google ID tokens locally: the RS256 signature against the provider's JSON Web Key
+ * Set, and the `iss`, `aud`, `exp` and `nonce` claims. Keys are kept in memory and on disk by
+ * `kid`; the key set is only fetched again when a token names an unknown key or when the
+ * cached set has expired according to its `Cache-Control` header, so verification is normally
+ * CPU-only.
+ */
+public final class IdTokenVerifier {
+
+    private static final String TAG = "IdTokenVerifier";
+
+    private static final String PREFS_NAME = "jwks";
+    private static final String KEY_PREFIX_KID = "kid.";
+    private static final String KEY_EXPIRES_AT = "expires_at";
+
+    private static final Uri DEFAULT_JWKS_URI =
+            Uri.parse("https://www.googleapis.com/oauth2/v3/certs");
+    private static final List<String> GOOGLE_ISSUERS =
+            Arrays.asList("https://accounts.google.com", "accounts.google.com");
+
+    private static final long DEFAULT_MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long MIN_REFETCH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long ALLOWED_CLOCK_SKEW_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static volatile IdTokenVerifier sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Map<String, PublicKey> mKeys = new ConcurrentHashMap<>();
+    private final Object mFetchLock = new Object();
+
+    private volatile long mExpiresAt;
+    private long mLastFetchAt;
+
+    @AnyThread
+    public static IdTokenVerifier getInstance(@NonNull Context context) {
+        IdTokenVerifier verifier = sInstance;
+        if (verifier == null) {
+            synchronized (IdTokenVerifier.class) {
+                verifier = sInstance;
+                if (verifier == null) {
+                    verifier = new IdTokenVerifier(context.getApplicationContext());
+                    sInstance = verifier;
+                }
+            }
+        }
+        return verifier;
+    }
+
+    private IdTokenVerifier(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mExpiresAt = mPrefs.getLong(KEY_EXPIRES_AT, 0L);
+    }
+
+    /**
+     * Verifies the ID token and returns its claims.
+     *
+     * @param expectedNonce the nonce sent with the authorization request, or null to skip the
+     *     nonce check.
+     * @param idToken the ID token from the token response; a missing token fails verification.
+     * @throws InvalidIdTokenException if the token is missing or malformed, not signed by a known
+     *     key, or its claims do not match.
+     * @throws IOException if the key set had to be fetched and that failed.
+     */
+    @WorkerThread
+    @NonNull
+    public JSONObject verify(
+            @Nullable String idToken,
+            @NonNull String clientId,
+            @Nullable String expectedNonce,
+            @Nullable AuthorizationServiceConfiguration serviceConfiguration,
+            @NonNull ConnectionBuilder connectionBuilder)
+            throws InvalidIdTokenException, IOException {
+        if (idToken == null) {
+            throw new InvalidIdTokenException("Token response has no ID token");
+        }
+        Jwt jwt;
+        try {
+            jwt = Jwt.parse(idToken);
+        } catch (JSONException ex) {
+            throw new InvalidIdTokenException("ID token is malformed", ex);
+        }
+
+        String alg = jwt.getHeader().optString("alg");
+        if (!"RS256".equals(alg)) {
+            throw new InvalidIdTokenException("Unsupported ID token algorithm: " + alg);
+        }
+
+        String kid = jwt.getHeader().optString("kid");
+        Uri jwksUri = DEFAULT_JWKS_URI;
+        String issuer = null;
+        if (serviceConfiguration != null && serviceConfiguration.discoveryDoc != null) {
+            if (serviceConfiguration.discoveryDoc.getJwksUri() != null) {
+                jwksUri = serviceConfiguration.discoveryDoc.getJwksUri();
+            }
+            issuer = serviceConfiguration.discoveryDoc.getIssuer();
+        }
+
+        PublicKey key = getKey(kid, jwksUri, connectionBuilder);
+        if (key == null) {
+            throw new InvalidIdTokenException("ID token is signed with an unknown key: " + kid);
+        }
+
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initVerify(key);
+            signature.update(jwt.getSigningInput());
+            if (!signature.verify(jwt.getSignature())) {
+                throw new InvalidIdTokenException("ID token signature is invalid");
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new InvalidIdTokenException("Unable to verify ID token signature", ex);
+        }
+
+        JSONObject claims = jwt.getClaims();
+        checkClaims(claims, clientId, expectedNonce, issuer);
+        return claims;
+    }
+
+    private static void checkClaims(
+            JSONObject claims,
+            String clientId,
+            @Nullable String expectedNonce,
+            @Nullable String issuer) throws InvalidIdTokenException {
+        String iss = claims.optString("iss");
+        if (!GOOGLE_ISSUERS.contains(iss) && !iss.equals(issuer)) {
+            throw new InvalidIdTokenException("ID token issuer is invalid: " + iss);
+        }
+
+        boolean audienceMatches;
+        JSONArray audiences = claims.optJSONArray("aud");
+        if (audiences != null) {
+            audienceMatches = false;
+            for (int i = 0; i < audiences.length(); i++) {
+                if (clientId.equals(audiences.optString(i))) {
+                    audienceMatches = true;
+                    break;
+                }
+            }
+        } else {
+            audienceMatches = clientId.equals(claims.optString("aud"));
+        }
+        if (!audienceMatches) {
+            throw new InvalidIdTokenException("ID token audience does not match the client ID");
+        }
+
+        long expiresAtMs = TimeUnit.SECONDS.toMillis(claims.optLong("exp", 0L));
+        if (expiresAtMs + ALLOWED_CLOCK_SKEW_MS < System.currentTimeMillis()) {
+            throw new InvalidIdTokenException("ID token has expired");
+        }
+
+        if (expectedNonce != null && !expectedNonce.equals(claims.optString("nonce", null))) {
+            throw new InvalidIdTokenException("ID token nonce does not match the request");
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    private PublicKey getKey(String kid, Uri jwksUri, ConnectionBuilder connectionBuilder)
+            throws IOException {
+        PublicKey key = findKey(kid);
+        boolean expired = System.currentTimeMillis() >= mExpiresAt;
+        if (key != null && !expired) {
+            return key;
+        }
+
+        synchronized (mFetchLock) {
+            long now = System.currentTimeMillis();
+            // a token naming an unknown key must not make us hammer the key endpoint
+            if (now - mLastFetchAt >= MIN_REFETCH_INTERVAL_MS || mKeys.isEmpty()) {
+                mLastFetchAt = now;
+                try {
+                    RetryPolicy.getDefault().execute(jwksUri, () -> {
+                        fetchKeys(jwksUri, connectionBuilder);
+                        return null;
+                    });
+                } catch (IOException ex) {
+                    if (key == null) {
+                        throw ex;
+                    }
+                    Log.w(TAG, "Failed to refresh expired key set, using cached key", ex);
+                }
+            }
+        }
+        return findKey(kid);
+    }
+
+    @Nullable
+    private PublicKey findKey(String kid) {
+        PublicKey key = mKeys.get(kid);
+        if (key != null) {
+            return key;
+        }
+
+        String stored = mPrefs.getString(KEY_PREFIX_KID + kid, null);
+        if (stored == null) {
+            return null;
+        }
+
+        try {
+            key = toPublicKey(new JSONObject(stored));
+            mKeys.put(kid, key);
+            return key;
+        } catch (JSONException | GeneralSecurityException | IllegalArgumentException ex) {
+            Log.w(TAG, "Failed to restore cached key " + kid + " - discarding", ex);
+            mPrefs.edit().remove(KEY_PREFIX_KID + kid).apply();
+            return null;
+        }
+    }
+
+    @WorkerThread
+    private void fetchKeys(Uri jwksUri, ConnectionBuilder connectionBuilder) throws IOException {
+        Log.d(TAG, "Fetching key set from " + jwksUri);
+        HttpURLConnection conn = connectionBuilder.openConnection(jwksUri);
+        try {
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(code,
+                        "Unexpected response code " + code + " when fetching keys");
+            }
+
+            long expiresAt = CacheControl.parse(conn.getHeaderField("Cache-Control"),
+                    DEFAULT_MAX_AGE_MS).expiresAt(System.currentTimeMillis());
+            String body;
+            try (BufferedSource source = Okio.buffer(Okio.source(conn.getInputStream()))) {
+                body = source.readString(StandardCharsets.UTF_8);
+            }
+
+            SharedPreferences.Editor editor = mPrefs.edit().clear();
+            try {
+                JSONArray keys = new JSONObject(body).getJSONArray("keys");
+                mKeys.clear();
+                for (int i = 0; i < keys.length(); i++) {
+                    JSONObject jwk = keys.getJSONObject(i);
+                    if (!"RSA".equals(jwk.optString("kty")) || !jwk.has("kid")) {
+                        continue;
+                    }
+                    try {
+                        mKeys.put(jwk.getString("kid"), toPublicKey(jwk));
+                        editor.putString(KEY_PREFIX_KID + jwk.getString("kid"), jwk.toString());
+                    } catch (GeneralSecurityException | IllegalArgumentException ex) {
+                        Log.w(TAG, "Skipping unusable key " + jwk.optString("kid"), ex);
+                    }
+                }
+            } catch (JSONException ex) {
+                throw new IOException("Malformed key set", ex);
+            }
+
+            mExpiresAt = expiresAt;
+            editor.putLong(KEY_EXPIRES_AT, expiresAt).apply();
+        } finally {
+            HttpConnections.release(conn);
+        }
+    }
+
+    private static PublicKey toPublicKey(JSONObject jwk)
+            throws JSONException, GeneralSecurityException {
+        int flags = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+        BigInteger modulus = new BigInteger(1, Base64.decode(jwk.getString("n"), flags));
+        BigInteger exponent = new BigInteger(1, Base64.decode(jwk.getString("e"), flags));
+        return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+    }
+
+    public static final class InvalidIdTokenException extends Exception {
+        InvalidIdTokenException(String reason) {
+            super(reason);
+        }
+
+        InvalidIdTokenException(String reason, Throwable cause) {
+            super(reason, cause);
+        }
+    }
+}
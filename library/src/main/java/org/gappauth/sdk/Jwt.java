@@ -0,0 +1,76 @@
+package org.gappauth.sdk;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A decoded, not yet verified, compact-serialized JSON Web Token.
+ */
+public final class Jwt {
+
+    private static final int BASE64_FLAGS = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
+    private final JSONObject mHeader;
+    private final JSONObject mClaims;
+    private final byte[] mSigningInput;
+    private final byte[] mSignature;
+
+    private Jwt(JSONObject header, JSONObject claims, byte[] signingInput, byte[] signature) {
+        mHeader = header;
+        mClaims = claims;
+        mSigningInput = signingInput;
+        mSignature = signature;
+    }
+
+    @NonNull
+    public static Jwt parse(@NonNull String token) throws JSONException {
+        int firstDot = token.indexOf('.');
+        int secondDot = token.indexOf('.', firstDot + 1);
+        if (firstDot < 0 || secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+            throw new JSONException("JWT must have exactly three segments");
+        }
+
+        try {
+            JSONObject header = new JSONObject(
+                    decodeSegment(token.substring(0, firstDot)));
+            JSONObject claims = new JSONObject(
+                    decodeSegment(token.substring(firstDot + 1, secondDot)));
+            byte[] signature = Base64.decode(token.substring(secondDot + 1), BASE64_FLAGS);
+            byte[] signingInput =
+                    token.substring(0, secondDot).getBytes(StandardCharsets.US_ASCII);
+            return new Jwt(header, claims, signingInput, signature);
+        } catch (IllegalArgumentException ex) {
+            throw new JSONException("JWT segment is not valid base64url: " + ex.getMessage());
+        }
+    }
+
+    private static String decodeSegment(String segment) {
+        return new String(Base64.decode(segment, BASE64_FLAGS), StandardCharsets.UTF_8);
+    }
+
+    @NonNull
+    public JSONObject getHeader() {
+        return mHeader;
+    }
+
+    @NonNull
+    public JSONObject getClaims() {
+        return mClaims;
+    }
+
+    @NonNull
+    byte[] getSigningInput() {
+        return mSigningInput;
+    }
+
+    @NonNull
+    byte[] getSignature() {
+        return mSignature;
+    }
+}
@@ -0,0 +1,130 @@
+package org.gappauth.sdk;
+
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.gappauth.sdk.api.GAppAuth;
+import org.gappauth.sdk.entity.GSignInEvent;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+/**
+ * Times sign-in phases and reports them to the registered
+ * {@link GAppAuth.OnMetricsListener}. While no listener is registered, {@link #begin} returns a
+ * shared no-op {@link Sample}, so instrumented code costs a single volatile read per phase and
+ * allocates nothing.
+ */
+public final class Metrics {
+
+    private static final String TAG = "Metrics";
+
+    private static volatile GAppAuth.OnMetricsListener sListener;
+
+    private Metrics() {
+        // no need to construct instances of this class
+    }
+
+    @AnyThread
+    public static void setListener(@Nullable GAppAuth.OnMetricsListener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * Starts timing a phase. The returned sample must be completed exactly once.
+     */
+    @AnyThread
+    @NonNull
+    public static Sample begin(@NonNull GSignInEvent.Phase phase) {
+        if (sListener == null) {
+            return Sample.NONE;
+        }
+        return new Sample(phase, System.nanoTime());
+    }
+
+    private static void report(GSignInEvent event) {
+        GAppAuth.OnMetricsListener listener = sListener;
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException ex) {
+            // a faulty listener must not break sign-in
+            Log.w(TAG, "Metrics listener failed", ex);
+        }
+    }
+
+    public static final class Sample {
+        static final Sample NONE = new Sample(null, 0L);
+
+        private final GSignInEvent.Phase mPhase;
+        private final long mStartNanos;
+        private long mBytes = GSignInEvent.UNKNOWN_BYTES;
+        private boolean mCacheHit;
+
+        private Sample(GSignInEvent.Phase phase, long startNanos) {
+            mPhase = phase;
+            mStartNanos = startNanos;
+        }
+
+        @NonNull
+        public Sample setBytes(long bytes) {
+            mBytes = bytes;
+            return this;
+        }
+
+        @NonNull
+        public Sample setCacheHit(boolean cacheHit) {
+            mCacheHit = cacheHit;
+            return this;
+        }
+
+        /**
+         * Wraps `source` so that the bytes read from it are added to this sample. Returns the
+         * source itself while metrics are disabled.
+         */
+        @NonNull
+        public Source count(@NonNull Source source) {
+            if (this == NONE) {
+                return source;
+            }
+            return new ForwardingSource(source) {
+                @Override
+                public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        mBytes = Math.max(mBytes, 0L) + read;
+                    }
+                    return read;
+                }
+            };
+        }
+
+        public void success() {
+            finish(GSignInEvent.Outcome.SUCCESS, null);
+        }
+
+        public void failure(@Nullable Exception error) {
+            finish(GSignInEvent.Outcome.FAILURE, error);
+        }
+
+        public void cancelled() {
+            finish(GSignInEvent.Outcome.CANCELLED, null);
+        }
+
+        private void finish(GSignInEvent.Outcome outcome, @Nullable Exception error) {
+            if (this == NONE) {
+                return;
+            }
+            report(new GSignInEvent(mPhase, outcome, System.nanoTime() - mStartNanos,
+                    mBytes, mCacheHit, error));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.gappauth.sdk;
+
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationService;
+import net.openid.appauth.ClientAuthentication;
+import net.openid.appauth.GrantTypeValues;
+import net.openid.appauth.TokenRequest;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Retries the SDK's outbound calls on transient failures (I/O errors, server errors and rate
+ * limiting) with capped exponential backoff and jitter, within the retry budget of the
+ * endpoint's {@link CircuitBreaker}. While an endpoint's circuit is open, calls fail fast with
+ * {@link CircuitBreaker.CircuitOpenException} instead of reaching the network.
+ */
+public final class RetryPolicy {
+
+    private static final String TAG = "RetryPolicy";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_DELAY_MS = 500;
+    private static final long DEFAULT_MAX_DELAY_MS = TimeUnit.SECONDS.toMillis(4);
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy(
+            DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+
+    public interface Call<T> {
+        T execute() throws IOException;
+    }
+
+    @AnyThread
+    @NonNull
+    public static RetryPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Runs the call, retrying it on transient failures. Blocks the calling thread while backing
+     * off.
+     */
+    @WorkerThread
+    public <T> T execute(@NonNull Uri endpoint, @NonNull Call<T> call) throws IOException {
+        CircuitBreaker breaker = CircuitBreaker.forEndpoint(endpoint);
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.allowRequest(System.currentTimeMillis())) {
+                throw breaker.newOpenException();
+            }
+
+            IOException failure;
+            boolean completed = false;
+            try {
+                T result = call.execute();
+                completed = true;
+                breaker.onSuccess();
+                return result;
+            } catch (IOException ex) {
+                completed = true;
+                failure = ex;
+            } finally {
+                if (!completed) {
+                    // the call threw unchecked, which says nothing about the endpoint, but must
+                    // not keep the half-open trial taken
+                    breaker.onAbandoned();
+                }
+            }
+
+            if (!isTransient(failure)) {
+                // the endpoint answered, the request itself is at fault
+                breaker.onSuccess();
+                throw failure;
+            }
+
+            long now = System.currentTimeMillis();
+            breaker.onFailure(now);
+            if (attempt >= mMaxAttempts || !breaker.tryAcquireRetry(now)) {
+                throw failure;
+            }
+
+            long delayMs = backoffDelayMs(attempt);
+            Log.d(TAG, "Attempt " + attempt + " to " + endpoint + " failed, retrying in "
+                    + delayMs + "ms", failure);
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Performs the token request through the token endpoint's circuit breaker. Refresh grants are
+     * retried on network and server errors; any other grant, in particular an authorization code
+     * exchange, is made once, since a request that reached the server may have used up its
+     * single-use code even if the response got lost. Retries are scheduled on the main thread,
+     * where the callback is invoked as with {@link AuthorizationService#performTokenRequest}.
+     */
+    @AnyThread
+    public void performTokenRequest(
+            @NonNull AuthorizationService service,
+            @NonNull TokenRequest request,
+            @NonNull ClientAuthentication clientAuthentication,
+            @NonNull AuthorizationService.TokenResponseCallback callback) {
+        performTokenRequest(service, request, clientAuthentication, callback, 1);
+    }
+
+    private void performTokenRequest(
+            AuthorizationService service,
+            TokenRequest request,
+            ClientAuthentication clientAuthentication,
+            AuthorizationService.TokenResponseCallback callback,
+            int attempt) {
+        CircuitBreaker breaker = CircuitBreaker.forEndpoint(request.configuration.tokenEndpoint);
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            callback.onTokenRequestCompleted(null, AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.NETWORK_ERROR,
+                    breaker.newOpenException()));
+            return;
+        }
+
+        AuthorizationService.TokenResponseCallback retrying = (response, ex) -> {
+            if (ex == null || !isTransient(ex)) {
+                breaker.onSuccess();
+                callback.onTokenRequestCompleted(response, ex);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            breaker.onFailure(now);
+            if (!isRetryable(request) || attempt >= mMaxAttempts || !breaker.tryAcquireRetry(now)) {
+                callback.onTokenRequestCompleted(response, ex);
+                return;
+            }
+
+            long delayMs = backoffDelayMs(attempt);
+            Log.d(TAG, "Token request attempt " + attempt + " failed, retrying in "
+                    + delayMs + "ms", ex);
+            Dispatcher.postToMainThreadDelayed(() -> performTokenRequest(service, request,
+                    clientAuthentication, callback, attempt + 1), delayMs);
+        };
+
+        try {
+            service.performTokenRequest(request, clientAuthentication, retrying);
+        } catch (IllegalStateException ex) {
+            // the service was disposed, possibly while backing off
+            breaker.onAbandoned();
+            callback.onTokenRequestCompleted(null, AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.PROGRAM_CANCELED_AUTH_FLOW, ex));
+        }
+    }
+
+    /**
+     * Returns the delay before the given retry: half of the capped exponential backoff, plus a
+     * random share of the other half, so that clients failing together do not retry together.
+     */
+    long backoffDelayMs(int attempt) {
+        long cap = Math.min(mMaxDelayMs, mBaseDelayMs << Math.min(attempt - 1, 20));
+        return cap / 2 + (long) (Math.random() * (cap / 2 + 1));
+    }
+
+    static boolean isTransient(IOException ex) {
+        if (ex instanceof CircuitBreaker.CircuitOpenException
+                || ex instanceof SSLPeerUnverifiedException) {
+            return false;
+        }
+        if (ex instanceof HttpStatusException) {
+            return ((HttpStatusException) ex).isTransient();
+        }
+        return true;
+    }
+
+    private static boolean isTransient(AuthorizationException ex) {
+        return ex.type == AuthorizationException.TYPE_GENERAL_ERROR
+                && (ex.code == AuthorizationException.GeneralErrors.NETWORK_ERROR.code
+                || ex.code == AuthorizationException.GeneralErrors.SERVER_ERROR.code);
+    }
+
+    static boolean isRetryable(TokenRequest request) {
+        return GrantTypeValues.REFRESH_TOKEN.equals(request.grantType);
+    }
+}
@@ -0,0 +1,266 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.AuthState;
+
+import org.apache.commons.codec.binary.Hex;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches access tokens per account and granted scope set, so that a token obtained for one set
+ * of scopes keeps serving requests for any subset of them after the account's current grant has
+ * changed. Every token response and refresh records the grant it produced. Entries are keyed by the subject and the SHA-256 of the canonical, sorted scope set;
+ * an exact match is a single lookup, otherwise the account's grants are scanned for one that
+ * covers the requested scopes.
+ */
+public final class ScopeTokenCache {
+
+    private static final String TAG = "ScopeTokenCache";
+
+    private static final String PREFS_NAME = "scope_tokens";
+    private static final String KEY_SUBJECT = "sub";
+    private static final String KEY_SCOPES = "scopes";
+    private static final String KEY_ACCESS_TOKEN = "access_token";
+    private static final String KEY_EXPIRES_AT = "expires_at";
+
+    /**
+     * Tokens expiring sooner than this are not served.
+     */
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static volatile ScopeTokenCache sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private volatile boolean mLoaded;
+
+    @AnyThread
+    public static ScopeTokenCache getInstance(@NonNull Context context) {
+        ScopeTokenCache cache = sInstance;
+        if (cache == null) {
+            synchronized (ScopeTokenCache.class) {
+                cache = sInstance;
+                if (cache == null) {
+                    cache = new ScopeTokenCache(context.getApplicationContext());
+                    sInstance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private ScopeTokenCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the canonical form of a scope set: trimmed, de-duplicated and sorted. Entries may
+     * themselves be space-separated scope strings.
+     */
+    @NonNull
+    public static SortedSet<String> canonicalize(@Nullable Collection<String> scopes) {
+        SortedSet<String> canonical = new TreeSet<>();
+        if (scopes != null) {
+            for (String scope : scopes) {
+                if (scope == null) {
+                    continue;
+                }
+                for (String part : scope.trim().split("\\s+")) {
+                    if (!part.isEmpty()) {
+                        canonical.add(part);
+                    }
+                }
+            }
+        }
+        return canonical;
+    }
+
+    @NonNull
+    public static SortedSet<String> canonicalize(@Nullable String scopes) {
+        return canonicalize(scopes != null
+                ? Collections.singletonList(scopes) : Collections.<String>emptyList());
+    }
+
+    /**
+     * Returns an unexpired access token for the given account whose grant covers all of the
+     * given scopes, or null.
+     */
+    @AnyThread
+    @Nullable
+    public String get(@Nullable String subject, @NonNull Collection<String> scopes) {
+        if (TextUtils.isEmpty(subject)) {
+            return null;
+        }
+        load();
+
+        SortedSet<String> requested = canonicalize(scopes);
+        long now = System.currentTimeMillis();
+        Entry exact = mEntries.get(keyFor(subject, requested));
+        if (exact != null && exact.isValid(now)) {
+            return exact.accessToken;
+        }
+
+        for (Entry entry : mEntries.values()) {
+            if (subject.equals(entry.subject) && entry.isValid(now)
+                    && entry.scopes.containsAll(requested)) {
+                return entry.accessToken;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records an access token granted for the given scopes, replacing any earlier token for the
+     * same scope set and dropping expired ones.
+     */
+    @AnyThread
+    public void put(@Nullable String subject, @NonNull Collection<String> scopes,
+                    @Nullable String accessToken, @Nullable Long expiresAt) {
+        if (TextUtils.isEmpty(subject) || accessToken == null) {
+            return;
+        }
+        load();
+
+        SortedSet<String> granted = canonicalize(scopes);
+        String key = keyFor(subject, granted);
+        Entry entry = new Entry(subject, granted, accessToken,
+                expiresAt != null ? expiresAt : Long.MAX_VALUE);
+        mEntries.put(key, entry);
+
+        SharedPreferences.Editor editor = mPrefs.edit();
+        try {
+            editor.putString(key, entry.toJson().toString());
+        } catch (JSONException ex) {
+            Log.w(TAG, "Failed to serialize token entry", ex);
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> cached : mEntries.entrySet()) {
+            if (!cached.getValue().isValid(now)) {
+                mEntries.remove(cached.getKey());
+                editor.remove(cached.getKey());
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Records the access token of the given state under the scopes it was granted for.
+     */
+    @AnyThread
+    public void put(@Nullable String subject, @NonNull AuthState state) {
+        put(subject, canonicalize(state.getScope()), state.getAccessToken(),
+                state.getAccessTokenExpirationTime());
+    }
+
+    /**
+     * Forgets every token of the given account.
+     */
+    @AnyThread
+    public void remove(@Nullable String subject) {
+        if (TextUtils.isEmpty(subject)) {
+            return;
+        }
+        load();
+
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (Map.Entry<String, Entry> cached : mEntries.entrySet()) {
+            if (subject.equals(cached.getValue().subject)) {
+                mEntries.remove(cached.getKey());
+                editor.remove(cached.getKey());
+            }
+        }
+        editor.apply();
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            for (Map.Entry<String, ?> stored : mPrefs.getAll().entrySet()) {
+                try {
+                    mEntries.put(stored.getKey(),
+                            Entry.fromJson(new JSONObject((String) stored.getValue())));
+                } catch (JSONException | ClassCastException ex) {
+                    Log.w(TAG, "Failed to deserialize cached token - discarding", ex);
+                    mPrefs.edit().remove(stored.getKey()).apply();
+                }
+            }
+            mLoaded = true;
+        }
+    }
+
+    private static String keyFor(String subject, SortedSet<String> scopes) {
+        return subject + "|" + sha256(TextUtils.join(" ", scopes));
+    }
+
+    private static String sha256(String str) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return Hex.encodeHexString(messageDigest.digest(str.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not supported", ex);
+        }
+    }
+
+    private static final class Entry {
+        final String subject;
+        final Set<String> scopes;
+        final String accessToken;
+        final long expiresAt;
+
+        Entry(String subject, Set<String> scopes, String accessToken, long expiresAt) {
+            this.subject = subject;
+            this.scopes = scopes;
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isValid(long now) {
+            return expiresAt - EXPIRY_MARGIN_MS > now;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_SUBJECT, subject);
+            json.put(KEY_SCOPES, TextUtils.join(" ", scopes));
+            json.put(KEY_ACCESS_TOKEN, accessToken);
+            json.put(KEY_EXPIRES_AT, expiresAt);
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            return new Entry(
+                    json.getString(KEY_SUBJECT),
+                    new HashSet<>(Arrays.asList(json.getString(KEY_SCOPES).split(" "))),
+                    json.getString(KEY_ACCESS_TOKEN),
+                    json.getLong(KEY_EXPIRES_AT));
+        }
+    }
+}
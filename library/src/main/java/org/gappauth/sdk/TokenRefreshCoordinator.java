@@ -0,0 +1,186 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationService;
+import net.openid.appauth.ClientAuthentication;
+import net.openid.appauth.TokenResponse;
+import net.openid.appauthdemo.AuthStateManager;
+
+import org.gappauth.sdk.entity.GSignInEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces concurrent token refreshes for the state held by {@link AuthStateManager}: only one
+ * refresh per refresh token is in flight at a time, and every caller that asked for fresh tokens
+ * meanwhile receives the result of that single request.
+ */
+public final class TokenRefreshCoordinator {
+
+    private static final String TAG = "TokenRefreshCoordinator";
+
+    private static volatile TokenRefreshCoordinator sInstance;
+
+    private final Context mContext;
+    private final Object mLock = new Object();
+    private final Map<String, List<AuthState.AuthStateAction>> mInFlight = new HashMap<>();
+
+    @AnyThread
+    public static TokenRefreshCoordinator getInstance(@NonNull Context context) {
+        TokenRefreshCoordinator coordinator = sInstance;
+        if (coordinator == null) {
+            synchronized (TokenRefreshCoordinator.class) {
+                coordinator = sInstance;
+                if (coordinator == null) {
+                    coordinator = new TokenRefreshCoordinator(context.getApplicationContext());
+                    sInstance = coordinator;
+                }
+            }
+        }
+        return coordinator;
+    }
+
+    private TokenRefreshCoordinator(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Equivalent of {@link AuthState#performActionWithFreshTokens}, except that concurrent
+     * refreshes are coalesced and the refreshed state is persisted exactly once. The action is
+     * invoked immediately on the calling thread if the current tokens are still fresh, otherwise
+     * on the main thread once the refresh completes.
+     */
+    @AnyThread
+    public void performActionWithFreshTokens(
+            @NonNull AuthorizationService service,
+            @NonNull AuthState.AuthStateAction action) {
+        AuthState state = getAuthStateManager().getCurrent();
+        if (!state.getNeedsTokenRefresh()) {
+            Metrics.begin(GSignInEvent.Phase.TOKEN_REFRESH).setCacheHit(true).success();
+            action.execute(state.getAccessToken(), state.getIdToken(), null);
+            return;
+        }
+        refresh(service, action);
+    }
+
+    /**
+     * Refreshes the tokens regardless of their expiry, joining a refresh already in flight for
+     * the same refresh token if there is one.
+     */
+    @AnyThread
+    public void refresh(
+            @NonNull AuthorizationService service,
+            @NonNull AuthState.AuthStateAction action) {
+        AuthState state = getAuthStateManager().getCurrent();
+        String refreshToken = state.getRefreshToken();
+        if (refreshToken == null) {
+            action.execute(null, null, AuthorizationException.fromTemplate(
+                    AuthorizationException.AuthorizationRequestErrors.CLIENT_ERROR,
+                    new IllegalStateException(
+                            "No refresh token available and token have expired")));
+            return;
+        }
+
+        synchronized (mLock) {
+            List<AuthState.AuthStateAction> waiters = mInFlight.get(refreshToken);
+            if (waiters != null) {
+                Log.d(TAG, "Joining in-flight token refresh");
+                waiters.add(action);
+                return;
+            }
+            waiters = new ArrayList<>();
+            waiters.add(action);
+            mInFlight.put(refreshToken, waiters);
+        }
+
+        Metrics.Sample sample = Metrics.begin(GSignInEvent.Phase.TOKEN_REFRESH);
+        ClientAuthentication clientAuthentication;
+        try {
+            clientAuthentication = state.getClientAuthentication();
+        } catch (ClientAuthentication.UnsupportedAuthenticationMethod ex) {
+            Log.w(TAG, "Token refresh cannot be made, client authentication is unsupported", ex);
+            sample.failure(ex);
+            complete(refreshToken, null, null, AuthorizationException.fromTemplate(
+                    AuthorizationException.TokenRequestErrors.CLIENT_ERROR, ex));
+            return;
+        }
+
+        RetryPolicy.getDefault().performTokenRequest(
+                service,
+                state.createTokenRefreshRequest(),
+                clientAuthentication,
+                (TokenResponse response, AuthorizationException ex) ->
+                        handleRefreshResponse(refreshToken, response, ex, sample));
+    }
+
+    @MainThread
+    private void handleRefreshResponse(
+            String refreshToken,
+            @Nullable TokenResponse response,
+            @Nullable AuthorizationException ex,
+            Metrics.Sample sample) {
+        // only apply the result to the session it was requested for: the user may have signed
+        // out or switched accounts meanwhile
+        boolean[] applied = new boolean[1];
+        AuthState updated = getAuthStateManager().update(state -> {
+            applied[0] = refreshToken.equals(state.getRefreshToken());
+            if (!applied[0]) {
+                return null;
+            }
+            state.update(response, ex);
+            return state;
+        });
+        if (!applied[0]) {
+            Log.i(TAG, "Session changed during token refresh, dropping the result");
+            sample.cancelled();
+            complete(refreshToken, null, null, AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.PROGRAM_CANCELED_AUTH_FLOW,
+                    new IllegalStateException("Session changed during token refresh")));
+            return;
+        }
+        if (ex != null || response == null) {
+            AuthorizationException error =
+                    ex != null ? ex : AuthorizationException.GeneralErrors.SERVER_ERROR;
+            sample.failure(error);
+            complete(refreshToken, null, null, error);
+            return;
+        }
+        sample.success();
+        ScopeTokenCache.getInstance(mContext)
+                .put(getAuthStateManager().getActiveAccount(), updated);
+        complete(refreshToken, updated.getAccessToken(), updated.getIdToken(), null);
+    }
+
+    private AuthStateManager getAuthStateManager() {
+        return AuthStateManager.getInstance(mContext);
+    }
+
+    private void complete(
+            String refreshToken,
+            @Nullable String accessToken,
+            @Nullable String idToken,
+            @Nullable AuthorizationException ex) {
+        List<AuthState.AuthStateAction> waiters;
+        synchronized (mLock) {
+            waiters = mInFlight.remove(refreshToken);
+        }
+        if (waiters == null) {
+            return;
+        }
+        for (AuthState.AuthStateAction waiter : waiters) {
+            waiter.execute(accessToken, idToken, ex);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.gappauth.sdk;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationService;
+import net.openid.appauthdemo.AuthStateManager;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the access token held by {@link AuthStateManager} a configurable margin before it
+ * expires, so that foreground calls almost always find a fresh token. A random jitter is
+ * subtracted from each deadline to spread refreshes out, and nothing is scheduled while the app
+ * has no started activity. The margin is capped at half of the token's remaining lifetime, so
+ * that a margin longer than the lifetime cannot make each refresh schedule the next one at once,
+ * and refreshing stops when the token endpoint rejects the grant.
+ *
+ * Refreshes use the service of the client that last started the scheduler, so that no second
+ * service, with its own browser lookup and Custom Tabs connection, is created for them.
+ */
+public final class TokenRefreshScheduler implements Application.ActivityLifecycleCallbacks {
+
+    private static final String TAG = "TokenRefreshScheduler";
+
+    public static final long DEFAULT_MARGIN_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long MAX_JITTER_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+    static final long MIN_DELAY_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static TokenRefreshScheduler sInstance;
+
+    private final Application mApplication;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+    private final Runnable mRefreshTask = this::refresh;
+
+    private ServiceProvider mServiceProvider;
+    private long mMarginMs = DEFAULT_MARGIN_MS;
+    private int mStartedActivities;
+    private boolean mForeground;
+    private boolean mStarted;
+    private boolean mRefreshing;
+
+    @MainThread
+    public static TokenRefreshScheduler getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new TokenRefreshScheduler(
+                    (Application) context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TokenRefreshScheduler(Application application) {
+        mApplication = application;
+    }
+
+    /**
+     * Starts refreshing tokens `marginMs` before they expire, with the service the given
+     * provider returns. Calling this again only updates the margin and the provider and
+     * reschedules.
+     */
+    @MainThread
+    public void start(long marginMs, @NonNull ServiceProvider serviceProvider) {
+        mMarginMs = marginMs;
+        mServiceProvider = serviceProvider;
+        if (!mStarted) {
+            mStarted = true;
+            // activities started before now are never reported, so seed the count from the
+            // process state; it cannot tell how many there are, so they count as one
+            mForeground = isVisible();
+            mStartedActivities = mForeground ? 1 : 0;
+            mApplication.registerActivityLifecycleCallbacks(this);
+        }
+        reschedule();
+    }
+
+    @MainThread
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mHandler.removeCallbacks(mRefreshTask);
+        mApplication.unregisterActivityLifecycleCallbacks(this);
+        // the service belongs to the client that provided it
+        mServiceProvider = null;
+    }
+
+    /**
+     * Recomputes the next refresh deadline from the current auth state. Should be called
+     * whenever the stored tokens change.
+     */
+    @MainThread
+    public void reschedule() {
+        mHandler.removeCallbacks(mRefreshTask);
+        if (!mStarted || !mForeground || mRefreshing) {
+            return;
+        }
+
+        AuthState state = AuthStateManager.getInstance(mApplication).getCurrent();
+        Long expiresAt = state.getAccessTokenExpirationTime();
+        if (state.getRefreshToken() == null || expiresAt == null) {
+            return;
+        }
+
+        long delay = refreshDelayMs(
+                expiresAt, System.currentTimeMillis(), mMarginMs, mRandom.nextDouble());
+        Log.d(TAG, "Next token refresh in " + delay + "ms");
+        mHandler.postDelayed(mRefreshTask, delay);
+    }
+
+    /**
+     * Returns how long to wait before refreshing a token expiring at `expiresAt`, given a
+     * random `jitterFraction` in [0, 1).
+     */
+    static long refreshDelayMs(long expiresAt, long now, long marginMs, double jitterFraction) {
+        long remaining = expiresAt - now;
+        long margin = Math.min(marginMs, Math.max(0, remaining / 2));
+        long jitter = (long) (jitterFraction * Math.min(MAX_JITTER_MS, margin / 2));
+        return Math.max(MIN_DELAY_MS, remaining - margin - jitter);
+    }
+
+    /**
+     * Whether a failed refresh is worth retrying: only network and server errors are. An OAuth
+     * error such as `invalid_grant` means the refresh token is no longer usable.
+     */
+    static boolean isRetryable(@NonNull AuthorizationException ex) {
+        return ex.type == AuthorizationException.TYPE_GENERAL_ERROR;
+    }
+
+    private static boolean isVisible() {
+        ActivityManager.RunningAppProcessInfo process = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(process);
+        return process.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+    }
+
+    @MainThread
+    private void refresh() {
+        if (AuthStateManager.getInstance(mApplication).getCurrent().getRefreshToken() == null) {
+            return;
+        }
+        AuthorizationService authService = mServiceProvider.getAuthorizationService();
+        if (authService == null) {
+            // wait for a client to start the scheduler again
+            Log.d(TAG, "No authorization service to refresh with");
+            return;
+        }
+
+        Log.d(TAG, "Refreshing access token ahead of expiry");
+        mRefreshing = true;
+        TokenRefreshCoordinator.getInstance(mApplication).refresh(
+                authService, this::handleRefreshResult);
+    }
+
+    @MainThread
+    private void handleRefreshResult(
+            @Nullable String accessToken,
+            @Nullable String idToken,
+            @Nullable AuthorizationException ex) {
+        mRefreshing = false;
+        if (ex != null) {
+            Log.w(TAG, "Proactive token refresh failed", ex);
+            if (!isRetryable(ex)) {
+                // wait for the tokens to change, e.g. on the next sign-in
+                return;
+            }
+            if (mStarted && mForeground) {
+                mHandler.postDelayed(mRefreshTask, RETRY_DELAY_MS);
+            }
+            return;
+        }
+        reschedule();
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        mStartedActivities++;
+        if (!mForeground) {
+            mForeground = true;
+            reschedule();
+        }
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        mStartedActivities = Math.max(0, mStartedActivities - 1);
+        if (mStartedActivities == 0 && !activity.isChangingConfigurations()) {
+            mForeground = false;
+            mHandler.removeCallbacks(mRefreshTask);
+        }
+    }
+
+    /**
+     * Supplies the service to refresh tokens with.
+     */
+    public interface ServiceProvider {
+        /**
+         * Returns the service, or null if the client providing it has been destroyed.
+         */
+        @Nullable
+        AuthorizationService getAuthorizationService();
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+    }
+}
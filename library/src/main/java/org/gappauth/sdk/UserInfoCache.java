@@ -0,0 +1,273 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import org.gappauth.sdk.entity.GSignInAccount;
+import org.gappauth.sdk.entity.GSignInEvent;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Caches the last userinfo response per subject and granted scope, in memory and on disk.
+ * Cached responses are revalidated with `If-None-Match` / `If-Modified-Since`; when the endpoint
+ * answers `304 Not Modified` the account is rebuilt from the parsed copy without downloading or
+ * parsing the body again.
+ */
+public final class UserInfoCache {
+
+    private static final String TAG = "UserInfoCache";
+
+    private static final String PREFS_NAME = "userinfo";
+    private static final String KEY_BODY = "body";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+
+    /**
+     * Upper bound on the size of a userinfo response; Google's are well under 2KB.
+     */
+    public static final long MAX_RESPONSE_BYTES = 64 * 1024;
+
+    private static volatile UserInfoCache sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    @AnyThread
+    public static UserInfoCache getInstance(@NonNull Context context) {
+        UserInfoCache cache = sInstance;
+        if (cache == null) {
+            synchronized (UserInfoCache.class) {
+                cache = sInstance;
+                if (cache == null) {
+                    cache = new UserInfoCache(context.getApplicationContext());
+                    sInstance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    private UserInfoCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the cache key for the given subject and access token scope, or null if the subject
+     * is unknown, in which case responses are not cached.
+     */
+    @Nullable
+    public static String keyFor(@Nullable String subject, @Nullable String scope) {
+        if (TextUtils.isEmpty(subject)) {
+            return null;
+        }
+        return subject + "|" + (scope != null ? scope : "");
+    }
+
+    /**
+     * Returns the cached account for the given key without touching the network, if any.
+     */
+    @AnyThread
+    @Nullable
+    public GSignInAccount peek(@Nullable String key) {
+        Entry entry = getEntry(key);
+        return entry != null ? entry.account : null;
+    }
+
+    @AnyThread
+    public void remove(@Nullable String key) {
+        if (key == null) {
+            return;
+        }
+        mEntries.remove(key);
+        mPrefs.edit().remove(key).apply();
+    }
+
+    /**
+     * Forgets every cached response for the given subject, whatever scope it was cached under.
+     */
+    @AnyThread
+    public void removeSubject(@Nullable String subject) {
+        if (TextUtils.isEmpty(subject)) {
+            return;
+        }
+        String prefix = subject + "|";
+        for (String key : mEntries.keySet()) {
+            if (key.startsWith(prefix)) {
+                mEntries.remove(key);
+            }
+        }
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String key : mPrefs.getAll().keySet()) {
+            if (key.startsWith(prefix)) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Queries the userinfo endpoint, revalidating any cached response for `key`, and builds the
+     * account with the given builder.
+     */
+    @WorkerThread
+    @NonNull
+    public GSignInAccount fetch(
+            @NonNull Uri userInfoEndpoint,
+            @NonNull String accessToken,
+            @Nullable String key,
+            @NonNull ConnectionBuilder connectionBuilder,
+            @NonNull GSignInAccount.Builder accountBuilder) throws IOException {
+        Metrics.Sample sample = Metrics.begin(GSignInEvent.Phase.USERINFO);
+        try {
+            GSignInAccount account = RetryPolicy.getDefault().execute(userInfoEndpoint,
+                    () -> fetch(userInfoEndpoint, accessToken, key, connectionBuilder,
+                            accountBuilder, sample));
+            sample.success();
+            return account;
+        } catch (IOException | RuntimeException ex) {
+            sample.failure(ex);
+            throw ex;
+        }
+    }
+
+    @WorkerThread
+    @NonNull
+    private GSignInAccount fetch(
+            Uri userInfoEndpoint,
+            String accessToken,
+            @Nullable String key,
+            ConnectionBuilder connectionBuilder,
+            GSignInAccount.Builder accountBuilder,
+            Metrics.Sample sample) throws IOException {
+        Entry cached = getEntry(key);
+
+        HttpURLConnection conn = connectionBuilder.openConnection(userInfoEndpoint);
+        try {
+            conn.setRequestProperty("Authorization", "Bearer " + accessToken);
+            conn.setInstanceFollowRedirects(false);
+            if (cached != null) {
+                if (cached.etag != null) {
+                    conn.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached.lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
+
+            int code = conn.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                Log.d(TAG, "userinfo not modified, using cached response");
+                sample.setCacheHit(true);
+                return accountBuilder.fromAccount(cached.account).build();
+            }
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(code,
+                        "Unexpected response code " + code + " when querying userinfo");
+            }
+
+            GSignInAccount account;
+            try (BufferedSource source =
+                         Okio.buffer(sample.count(Okio.source(conn.getInputStream())))) {
+                account = accountBuilder.fromJson(source, MAX_RESPONSE_BYTES).build();
+            }
+
+            if (key != null) {
+                Entry entry = new Entry(account, account.getJsonResult(),
+                        conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"));
+                mEntries.put(key, entry);
+                try {
+                    mPrefs.edit().putString(key, entry.toJson().toString()).apply();
+                } catch (JSONException ex) {
+                    Log.w(TAG, "Failed to serialize userinfo response", ex);
+                }
+            }
+            return account;
+        } finally {
+            HttpConnections.release(conn);
+        }
+    }
+
+    @Nullable
+    private Entry getEntry(@Nullable String key) {
+        if (key == null) {
+            return null;
+        }
+
+        Entry entry = mEntries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        String stored = mPrefs.getString(key, null);
+        if (stored == null) {
+            return null;
+        }
+
+        try {
+            entry = Entry.fromJson(new JSONObject(stored));
+            mEntries.put(key, entry);
+            return entry;
+        } catch (JSONException ex) {
+            Log.w(TAG, "Failed to deserialize cached userinfo - discarding", ex);
+            mPrefs.edit().remove(key).apply();
+            return null;
+        }
+    }
+
+    private static final class Entry {
+        final GSignInAccount account;
+        final String body;
+        @Nullable
+        final String etag;
+        @Nullable
+        final String lastModified;
+
+        Entry(GSignInAccount account, String body,
+              @Nullable String etag, @Nullable String lastModified) {
+            this.account = account;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_BODY, body);
+            if (etag != null) {
+                json.put(KEY_ETAG, etag);
+            }
+            if (lastModified != null) {
+                json.put(KEY_LAST_MODIFIED, lastModified);
+            }
+            return json;
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            String body = json.getString(KEY_BODY);
+            return new Entry(
+                    new GSignInAccount.Builder().fromJson(body).build(),
+                    body,
+                    json.has(KEY_ETAG) ? json.getString(KEY_ETAG) : null,
+                    json.has(KEY_LAST_MODIFIED) ? json.getString(KEY_LAST_MODIFIED) : null);
+        }
+    }
+}
@@ -4,17 +4,27 @@ import static net.openid.appauth.AuthorizationException.EXTRA_EXCEPTION;
 import static net.openid.appauth.AuthorizationException.GeneralErrors.NETWORK_ERROR;
 
 import android.app.Activity;
+import android.app.Application;
+import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.AnyThread;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.browser.customtabs.CustomTabsIntent;
 
+import net.openid.appauth.AppAuthConfiguration;
 import net.openid.appauth.AuthState;
 import net.openid.appauth.AuthorizationException;
 import net.openid.appauth.AuthorizationRequest;
@@ -23,38 +33,143 @@ import net.openid.appauth.AuthorizationService;
 import net.openid.appauth.AuthorizationServiceConfiguration;
 import net.openid.appauth.AuthorizationServiceDiscovery;
 import net.openid.appauth.EndSessionRequest;
+import net.openid.appauth.IdToken;
+import net.openid.appauth.NoClientAuthentication;
 import net.openid.appauth.RedirectUriReceiverActivity;
 import net.openid.appauth.TokenResponse;
+import net.openid.appauth.browser.AnyBrowserMatcher;
+import net.openid.appauth.browser.BrowserDescriptor;
+import net.openid.appauth.browser.BrowserMatcher;
+import net.openid.appauth.browser.ExactBrowserMatcher;
 import net.openid.appauthdemo.AuthStateManager;
+import net.openid.appauthdemo.AuthStateStore;
 import net.openid.appauthdemo.Configuration;
 
 import org.gappauth.sdk.BridgeActivity;
+import org.gappauth.sdk.BrowserCache;
+import org.gappauth.sdk.DiscoveryCache;
+import org.gappauth.sdk.Dispatcher;
+import org.gappauth.sdk.IdTokenVerifier;
+import org.gappauth.sdk.Jwt;
+import org.gappauth.sdk.Metrics;
+import org.gappauth.sdk.RetryPolicy;
+import org.gappauth.sdk.ScopeTokenCache;
+import org.gappauth.sdk.TokenRefreshCoordinator;
+import org.gappauth.sdk.TokenRefreshScheduler;
+import org.gappauth.sdk.UserInfoCache;
 import org.gappauth.sdk.entity.GSignInAccount;
+import org.gappauth.sdk.entity.GSignInEvent;
 import org.gappauth.sdk.entity.GSignInOptions;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.nio.charset.StandardCharsets;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import okio.Okio;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * The sign-in client. Create it once per process with
+ * {@link #initialize(Application, GSignInOptions)}, or {@link Builder#buildShared()}, and look it
+ * up with {@link #getInstance()} from any screen: the configuration, service configuration,
+ * {@link AuthorizationService} and executor are then set up only once, and only the calls that
+ * start an activity take one.
+ *
+ * A client created with an {@link Activity} also launches sign-in from that activity when none
+ * is given. It only keeps a weak reference to it, and releases its {@link AuthorizationService}
+ * when the activity is destroyed. A shared client keeps it until {@link #dispose()}.
+ */
 public class GAppAuth {
 
     private static final String TAG = GAppAuth.class.getSimpleName();
     private static final Exception UNKNOWN_ERROR = new Exception("Unknown Error");
     private static final int END_SESSION_REQUEST_CODE = 911;
 
-    private final Activity mActivity;
+    private static volatile GAppAuth sInstance;
+
+    private final Context mContext;
+    private final WeakReference<Activity> mActivity;
     private final GSignInOptions mOptions;
+    private final ExecutorService mExecutor;
+    private final long mTokenRefreshMarginMs;
+    private final boolean mWriteBehind;
+    private final boolean mVerifyIdToken;
+    private final boolean mAccountFromIdToken;
+    private final boolean mCompactUserInfo;
+    @Nullable
+    private final AuthStateStore mAuthStateStore;
+    private final BrowserMatcher mBrowserMatcher;
+    private final AuthorizationServiceFactory mServiceFactory;
 
-    private AuthorizationService mAuthService;
+    // the service, if created, the browser it was created for and the generation it belongs to;
+    // dispose() replaces all three, so that background work queued before it does not bring the
+    // service back
+    private final AtomicReference<ServiceSlot> mServiceSlot =
+            new AtomicReference<>(new ServiceSlot(0, null, null));
+    // set once the activity the client was created with is destroyed
+    private volatile boolean mDestroyed;
     private AuthStateManager mAuthStateManager;
     private Configuration mConfiguration;
 
     private AuthorizationServiceConfiguration mServiceConfiguration;
-    private GSignInAccount.Builder mAccountBuilder;
+    @Nullable
+    private Metrics.Sample mBrowserSample;
+    // the grant requestScopes() is extending, until its result has been parsed
+    @Nullable
+    private PendingScopeRequest mPendingScopeRequest;
+    // the account addAccount() detached, to make current again if the new sign-in fails
+    @Nullable
+    private String mAccountToRestore;
+    private final AtomicReference<AuthorizationRequest> mAuthRequest = new AtomicReference<>();
+    private final AtomicReference<CustomTabsIntent> mAuthIntent = new AtomicReference<>();
+
+    private final Application.ActivityLifecycleCallbacks mLifecycleCallbacks =
+            new Application.ActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityCreated(@NonNull Activity activity,
+                                              @Nullable Bundle savedInstanceState) {
+                }
+
+                @Override
+                public void onActivityStarted(@NonNull Activity activity) {
+                }
+
+                @Override
+                public void onActivityResumed(@NonNull Activity activity) {
+                }
+
+                @Override
+                public void onActivityPaused(@NonNull Activity activity) {
+                }
+
+                @Override
+                public void onActivityStopped(@NonNull Activity activity) {
+                }
+
+                @Override
+                public void onActivitySaveInstanceState(@NonNull Activity activity,
+                                                        @NonNull Bundle outState) {
+                }
+
+                @Override
+                public void onActivityDestroyed(@NonNull Activity activity) {
+                    if (activity == mActivity.get()) {
+                        mDestroyed = true;
+                        activity.getApplication().unregisterActivityLifecycleCallbacks(this);
+                        dispose();
+                    }
+                }
+            };
+
+    private final BrowserCache.OnBrowsersChangedListener mBrowsersChangedListener =
+            () -> mExecutor.execute(this::onBrowsersChanged);
 
     private final OnSignOutListener initListener = new OnSignOutListener() {
         @Override
@@ -67,29 +182,116 @@ public class GAppAuth {
         }
     };
 
+    /**
+     * Creates and initializes the client on the calling thread, which involves package manager
+     * and disk reads. Prefer {@link Builder#buildAsync(OnInitListener)} from `onCreate`.
+     */
     public GAppAuth(@NonNull Activity activity, @NonNull GSignInOptions options) {
-        this.mActivity = activity;
-        this.mOptions = options;
-
+        this(new Builder(activity, options));
         init(initListener);
     }
 
+    private GAppAuth(@NonNull Builder builder) {
+        this.mContext = builder.context.getApplicationContext();
+        this.mActivity = new WeakReference<>(
+                builder.context instanceof Activity ? (Activity) builder.context : null);
+        this.mOptions = builder.options;
+        this.mExecutor = builder.executor != null ? builder.executor : Dispatcher.getDefault();
+        this.mTokenRefreshMarginMs = builder.tokenRefreshMarginMs;
+        this.mWriteBehind = builder.writeBehind;
+        this.mVerifyIdToken = builder.verifyIdToken;
+        this.mAccountFromIdToken = builder.accountFromIdToken;
+        this.mCompactUserInfo = builder.compactUserInfo;
+        this.mAuthStateStore = builder.authStateStore;
+        this.mBrowserMatcher = builder.browserMatcher;
+        this.mServiceFactory = builder.serviceFactory;
+        if (builder.context instanceof Activity && mContext instanceof Application) {
+            ((Application) mContext).registerActivityLifecycleCallbacks(mLifecycleCallbacks);
+        }
+    }
+
+    /**
+     * Creates the process-wide client from the application, initializing it on the calling
+     * thread, or returns it if it already exists. Call it from {@link Application#onCreate()}.
+     */
+    @NonNull
+    public static GAppAuth initialize(@NonNull Application application,
+                                      @NonNull GSignInOptions options) {
+        return new Builder(application, options).buildShared();
+    }
+
+    /**
+     * Returns the process-wide client.
+     *
+     * @throws IllegalStateException if it has not been created yet.
+     */
+    @AnyThread
+    @NonNull
+    public static GAppAuth getInstance() {
+        GAppAuth appAuth = sInstance;
+        if (appAuth == null) {
+            throw new IllegalStateException(
+                    "GAppAuth.initialize() must be called before GAppAuth.getInstance()");
+        }
+        return appAuth;
+    }
+
+    /**
+     * Registers a listener that receives a timed {@link GSignInEvent} for each phase of sign-in,
+     * across all {@link GAppAuth} instances, or unregisters it when null. Events are delivered
+     * on the thread that completed the phase, so the listener must be thread-safe and cheap;
+     * while none is registered, no events are created.
+     */
+    public static void setMetricsListener(@Nullable OnMetricsListener listener) {
+        Metrics.setListener(listener);
+    }
+
     private void init(OnSignOutListener listener) {
+        if (prepare(listener)) {
+            initServiceConfiguration(listener);
+        }
+    }
+
+    /**
+     * Resolves the client ID and loads the configuration and the stored auth state. Performs
+     * package manager and disk reads, so may be called on a worker thread.
+     */
+    @AnyThread
+    private boolean prepare(OnSignOutListener listener) {
         String clientId = "invalid";
         try {
-            ActivityInfo activityInfo = mActivity.getPackageManager().getActivityInfo(
-                    new ComponentName(mActivity, RedirectUriReceiverActivity.class), PackageManager.GET_META_DATA);
+            ActivityInfo activityInfo = mContext.getPackageManager().getActivityInfo(
+                    new ComponentName(mContext, RedirectUriReceiverActivity.class), PackageManager.GET_META_DATA);
             clientId = activityInfo.metaData.getString("gappauth.google.clientid");
         } catch (PackageManager.NameNotFoundException e) {
             listener.onFailure(new Exception("client_id_prefix is invalid", e));
-            return;
+            return false;
+        }
+        mAuthStateManager = mAuthStateStore != null
+                ? AuthStateManager.getInstance(mContext, mAuthStateStore)
+                : AuthStateManager.getInstance(mContext);
+        if (mWriteBehind) {
+            mAuthStateManager.setWriteBehind(true);
+        }
+        // load the stored state now rather than on first use
+        mAuthStateManager.getCurrent();
+        mConfiguration = Configuration.getInstance(mContext, clientId);
+        return true;
+    }
+
+    @AnyThread
+    private void initServiceConfiguration(OnSignOutListener listener) {
+        if (mTokenRefreshMarginMs >= 0) {
+            // refresh with this client's service rather than one of the scheduler's own
+            Dispatcher.runOnMainThread(() -> TokenRefreshScheduler.getInstance(mContext)
+                    .start(mTokenRefreshMarginMs,
+                            () -> mDestroyed ? null : getAuthorizationService()));
         }
-        mAuthStateManager = AuthStateManager.getInstance(mActivity);
-        mConfiguration = Configuration.getInstance(mActivity, clientId);
 
         if (mAuthStateManager.getCurrent().isAuthorized()
                 && !mConfiguration.hasConfigurationChanged()) {
             Log.d(TAG, "User is already authenticated, proceeding to token activity");
+            warmUpBrowser();
             listener.onFailure(new Exception("User is already authenticated, proceeding to token activity"));
             return;
         }
@@ -110,7 +312,7 @@ public class GAppAuth {
             mServiceConfiguration = serviceConfiguration;
         }
 
-        AuthorizationServiceConfiguration.fetchFromUrl(
+        DiscoveryCache.getInstance(mContext).fetch(
                 mConfiguration.getDiscoveryUri(),
                 new AuthorizationServiceConfiguration.RetrieveConfigurationCallback() {
                     @Override
@@ -122,55 +324,219 @@ public class GAppAuth {
                         }
                         mAuthStateManager.replace(new AuthState(serviceConfiguration));
                         mServiceConfiguration = serviceConfiguration;
+                        warmUpBrowser();
                         listener.onSuccess();
                     }
-                }, mConfiguration.getConnectionBuilder());
+                }, mConfiguration.getConnectionBuilder(), mExecutor);
     }
 
+    /**
+     * Signs in from the activity the client was created with.
+     *
+     * @throws IllegalStateException if it was not created with an activity, or that activity is
+     * gone.
+     */
     public void signIn(int requestCode) {
-        mAuthService = new AuthorizationService(mActivity);
+        signIn(requireActivity(), requestCode);
+    }
 
+    /**
+     * Starts sign-in from the given activity. The result is delivered to its `onActivityResult`,
+     * to be passed to {@link #parseAuthResultFromIntent(Intent, OnSignInListener)}. A browser
+     * without Custom Tabs support is launched as is, without being warmed up.
+     *
+     * @throws ActivityNotFoundException if no browser is installed.
+     */
+    @MainThread
+    public void signIn(@NonNull Activity activity, int requestCode) {
         if (mAuthStateManager.getCurrent().isAuthorized()
                 && !mConfiguration.hasConfigurationChanged()) {
             Log.i(TAG, "User is already authenticated, proceeding to token activity");
-            mActivity.startActivityForResult(new Intent(mActivity, BridgeActivity.class), requestCode);
+            activity.startActivityForResult(new Intent(activity, BridgeActivity.class), requestCode);
             return;
         }
 
         if (mServiceConfiguration == null) {
-            Log.i(TAG, NETWORK_ERROR.toString());
-            Intent intent = new Intent(mActivity, BridgeActivity.class);
-            intent.putExtra(EXTRA_EXCEPTION, NETWORK_ERROR.toJsonString());
-            mActivity.startActivityForResult(intent, requestCode);
-            init(initListener);
+            deliverNetworkError(activity, requestCode);
             return;
         }
 
         Log.d(TAG, mConfiguration.getClientId() + ", " + mOptions.getScopes());
-        AuthorizationRequest.Builder authRequestBuilder = new AuthorizationRequest.Builder(
-                mServiceConfiguration,
+        // use the request prepared by warmUpBrowser(), for which the browser may already be
+        // loading the consent page
+        AuthorizationRequest authRequest = mAuthRequest.getAndSet(null);
+        CustomTabsIntent customTabsIntent = mAuthIntent.getAndSet(null);
+        if (authRequest == null || authRequest.configuration != mServiceConfiguration) {
+            authRequest = createAuthorizationRequest(mServiceConfiguration, null);
+            customTabsIntent = null;
+        }
+        startAuthorization(activity, requestCode, authRequest, customTabsIntent);
+    }
+
+    private void startAuthorization(Activity activity, int requestCode,
+                                    AuthorizationRequest authRequest,
+                                    @Nullable CustomTabsIntent customTabsIntent) {
+        // a sign-in replaces any incremental authorization whose result never came back
+        mPendingScopeRequest = null;
+        Intent authIntent = getAuthorizationRequestIntent(authRequest, customTabsIntent);
+        mBrowserSample = Metrics.begin(GSignInEvent.Phase.BROWSER);
+        activity.startActivityForResult(authIntent, requestCode);
+    }
+
+    /**
+     * Returns the intent launching the request in the browser, in a Custom Tab if it supports
+     * them. Without a prepared Custom Tabs intent, AppAuth waits up to a second for a Custom Tabs
+     * connection; with a browser that supports none, no connection is ever made, so it is not
+     * waited for.
+     *
+     * @throws ActivityNotFoundException if no browser is installed.
+     */
+    private Intent getAuthorizationRequestIntent(AuthorizationRequest authRequest,
+                                                 @Nullable CustomTabsIntent customTabsIntent) {
+        ServiceSlot slot = getServiceSlot();
+        if (customTabsIntent == null && !supportsCustomTabs(slot.browser)) {
+            // only read by AppAuth for a Custom Tabs browser
+            customTabsIntent = new CustomTabsIntent.Builder().build();
+        }
+        return customTabsIntent != null
+                ? slot.service.getAuthorizationRequestIntent(authRequest, customTabsIntent)
+                : slot.service.getAuthorizationRequestIntent(authRequest);
+    }
+
+    private static boolean supportsCustomTabs(@Nullable BrowserDescriptor browser) {
+        return browser != null && browser.useCustomTab;
+    }
+
+    private void deliverNetworkError(Activity activity, int requestCode) {
+        Log.i(TAG, NETWORK_ERROR.toString());
+        Intent intent = new Intent(activity, BridgeActivity.class);
+        intent.putExtra(EXTRA_EXCEPTION, NETWORK_ERROR.toJsonString());
+        activity.startActivityForResult(intent, requestCode);
+        init(initListener);
+    }
+
+    @NonNull
+    private Activity requireActivity() {
+        Activity activity = mActivity.get();
+        if (activity == null) {
+            throw new IllegalStateException("No activity to start from, pass one explicitly");
+        }
+        return activity;
+    }
+
+    private AuthorizationRequest createAuthorizationRequest(
+            AuthorizationServiceConfiguration serviceConfiguration, @Nullable String prompt) {
+        return new AuthorizationRequest.Builder(
+                serviceConfiguration,
                 mConfiguration.getClientId(),
                 mOptions.getResponseType(),
-                mConfiguration.getRedirectUri());
+                mConfiguration.getRedirectUri())
+                .setScopes(mOptions.getScopes())
+                .setPrompt(prompt)
+                .build();
+    }
+
+    /**
+     * Prepares the next sign-in once the service configuration is known: builds the
+     * authorization request, binds the Custom Tabs service and tells the browser it may launch
+     * the request's URL, so that {@link #signIn(Activity, int)} only has to start the browser.
+     */
+    @AnyThread
+    private void warmUpBrowser() {
+        if (mDestroyed) {
+            return;
+        }
+        int generation = getServiceGeneration();
+        AuthorizationServiceConfiguration serviceConfiguration = mServiceConfiguration;
+        if (serviceConfiguration == null || mAuthStateManager.getCurrent().isAuthorized()) {
+            // no sign-in to prepare, but token requests and requestScopes() use the service too
+            mExecutor.execute(() -> getServiceSlot(generation));
+            return;
+        }
 
-        AuthorizationRequest authRequest = authRequestBuilder.setScopes(mOptions.getScopes()).build();
+        AuthorizationRequest authRequest = createAuthorizationRequest(serviceConfiguration, null);
+        mAuthRequest.set(authRequest);
+        mAuthIntent.set(null);
+        mExecutor.execute(() -> {
+            Log.i(TAG, "Warming up browser instance for auth request");
+            // waits for the Custom Tabs service connection, hence off the main thread
+            ServiceSlot slot = getServiceSlot(generation);
+            if (slot == null) {
+                Log.d(TAG, "Client disposed before the browser was warmed up");
+                return;
+            }
+            if (!supportsCustomTabs(slot.browser)) {
+                // AppAuth would wait for a connection that is never made
+                Log.d(TAG, "No Custom Tabs browser to warm up");
+                return;
+            }
+            CustomTabsIntent customTabsIntent;
+            try {
+                customTabsIntent = slot.service
+                        .createCustomTabsIntentBuilder(authRequest.toUri())
+                        .build();
+            } catch (IllegalStateException e) {
+                Log.d(TAG, "Client disposed while warming up the browser", e);
+                return;
+            }
+            if (mAuthRequest.get() == authRequest) {
+                mAuthIntent.set(customTabsIntent);
+            }
+        });
+    }
 
-        Intent authIntent = mAuthService.getAuthorizationRequestIntent(authRequest);
-        mActivity.startActivityForResult(authIntent, requestCode);
+    /**
+     * Creates the service for the browser cached by {@link BrowserCache}. AppAuth still lists the
+     * installed browsers while constructing it, which is why the service is created ahead of
+     * sign-in by {@link #warmUpBrowser()}, on the executor.
+     */
+    private AuthorizationService createAuthorizationService(@Nullable BrowserDescriptor browser) {
+        return mServiceFactory.create(mContext, new AppAuthConfiguration.Builder()
+                .setBrowserMatcher(
+                        browser != null ? new ExactBrowserMatcher(browser) : mBrowserMatcher)
+                .setConnectionBuilder(mConfiguration.getConnectionBuilder())
+                .build());
+    }
+
+    /**
+     * Replaces the service, and the browser warmed up for it, if installing, removing or
+     * updating a package changed the browser the matcher selects.
+     */
+    @WorkerThread
+    private void onBrowsersChanged() {
+        ServiceSlot slot = mServiceSlot.get();
+        if (slot.service == null) {
+            return;
+        }
+        int generation = slot.generation;
+        BrowserDescriptor browser = BrowserCache.getInstance(mContext).resolve(mBrowserMatcher);
+        BrowserDescriptor current = slot.browser;
+        if (browser == null ? current == null : browser.equals(current)) {
+            return;
+        }
+        Log.i(TAG, "Browser changed, recreating the authorization service");
+        Dispatcher.runOnMainThread(() -> {
+            // the service may have been disposed, and the client destroyed, meanwhile
+            if (getServiceGeneration() != generation || mDestroyed) {
+                return;
+            }
+            dispose();
+            warmUpBrowser();
+        });
     }
 
     @MainThread
-    private void endSession(OnSignOutListener listener) {
+    private void endSession(Activity activity, OnSignOutListener listener) {
         AuthState currentState = mAuthStateManager.getCurrent();
         AuthorizationServiceConfiguration config =
                 currentState.getAuthorizationServiceConfiguration();
         if (config.endSessionEndpoint != null) {
-            Intent endSessionIntent = mAuthService.getEndSessionRequestIntent(
+            Intent endSessionIntent = getAuthorizationService().getEndSessionRequestIntent(
                     new EndSessionRequest.Builder(config)
                             .setIdTokenHint(currentState.getIdToken())
                             .setPostLogoutRedirectUri(mConfiguration.getEndSessionRedirectUri())
                             .build());
-            mActivity.startActivityForResult(endSessionIntent, END_SESSION_REQUEST_CODE);
+            activity.startActivityForResult(endSessionIntent, END_SESSION_REQUEST_CODE);
         } else {
             signOut(listener);
         }
@@ -180,6 +546,12 @@ public class GAppAuth {
         // discard the authorization and token state, but retain the configuration and
         // dynamic client registration (if applicable), to save from retrieving them again.
         AuthState currentState = mAuthStateManager.getCurrent();
+        IdToken idToken = currentState.getParsedIdToken();
+        if (idToken != null) {
+            UserInfoCache.getInstance(mContext).removeSubject(idToken.subject);
+            mAuthStateManager.removeAccount(idToken.subject);
+            ScopeTokenCache.getInstance(mContext).remove(idToken.subject);
+        }
         AuthState clearedState =
                 new AuthState(currentState.getAuthorizationServiceConfiguration());
         if (currentState.getLastRegistrationResponse() != null) {
@@ -189,27 +561,229 @@ public class GAppAuth {
         init(listener);
     }
 
-    public void parseAuthResultFromIntent(Intent data, OnSignInListener listener) {
-        mAccountBuilder = new GSignInAccount.Builder();
+    /**
+     * Returns the accounts that have signed in on this device and not signed out, built from
+     * the profile claims of their last ID token. No auth state is loaded to list them.
+     */
+    @NonNull
+    public List<GSignInAccount> getAccounts() {
+        List<GSignInAccount> accounts = new ArrayList<>();
+        for (JSONObject profile : mAuthStateManager.getAccounts().values()) {
+            accounts.add(new GSignInAccount.Builder().fromIdTokenClaims(profile).build());
+        }
+        return accounts;
+    }
+
+    /**
+     * Signs in another account, keeping the current one available to
+     * {@link #switchAccount(String, OnSignInListener)}. Google is asked to show its account
+     * chooser, so that the user is not signed in again with the account the browser session
+     * belongs to. The result is delivered to `onActivityResult` as with
+     * {@link #signIn(Activity, int)}. If the user cancels or the sign-in fails, the account that
+     * was current is made current again.
+     */
+    public void addAccount(@NonNull Activity activity, int requestCode) {
+        if (mServiceConfiguration == null) {
+            deliverNetworkError(activity, requestCode);
+            return;
+        }
 
         if (mAuthStateManager.getCurrent().isAuthorized()) {
-            Log.i(TAG, "User is already authenticated, proceeding to token activity");
-            AuthorizationResponse lastResp = mAuthStateManager.getCurrent().getLastAuthorizationResponse();
-            if (lastResp != null) {
-                mAccountBuilder.setServerAuthCode(lastResp.authorizationCode);
-            }
+            mAccountToRestore = mAuthStateManager.getActiveAccount();
+            mAuthStateManager.detachActiveAccount();
+        }
+        // the request warmUpBrowser() prepared has no prompt, keep it for the next signIn()
+        startAuthorization(activity, requestCode,
+                createAuthorizationRequest(mServiceConfiguration, "select_account"), null);
+    }
 
-            mAuthStateManager.getCurrent().performActionWithFreshTokens(mAuthService, new AuthState.AuthStateAction() {
-                @Override
-                public void execute(@Nullable String accessToken, @Nullable String idToken, @Nullable AuthorizationException ex) {
-                    fetchUserInfo(accessToken, ex, listener);
-                }
-            });
+    /**
+     * Adds an account from the activity the client was created with, see
+     * {@link #addAccount(Activity, int)}.
+     */
+    public void addAccount(int requestCode) {
+        addAccount(requireActivity(), requestCode);
+    }
+
+    /**
+     * Makes the account with the given {@link GSignInAccount#getId() id} current and signs it
+     * in silently, see {@link #silentSignIn(OnSignInListener)}. No request is made while its
+     * tokens are valid.
+     */
+    public void switchAccount(@NonNull String accountId, @NonNull OnSignInListener listener) {
+        try {
+            mAuthStateManager.switchAccount(accountId);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            listener.onFailure(e);
+            return;
+        }
+        if (mTokenRefreshMarginMs >= 0) {
+            Dispatcher.runOnMainThread(() -> TokenRefreshScheduler.getInstance(mContext).reschedule());
+        }
+        silentSignIn(listener);
+    }
+
+    /**
+     * Refreshes the current account's tokens, regardless of their expiry, and delivers the
+     * account.
+     */
+    public void refresh(@NonNull OnSignInListener listener) {
+        if (!mAuthStateManager.getCurrent().isAuthorized()) {
+            listener.onFailure(new Exception("User is not signed in"));
+            return;
+        }
+
+        GSignInAccount.Builder accountBuilder = newAccountBuilder(
+                mAuthStateManager.getCurrent().getLastAuthorizationResponse());
+        TokenRefreshCoordinator.getInstance(mContext).refresh(getAuthorizationService(),
+                (accessToken, idToken, ex) -> {
+                    if (ex != null) {
+                        listener.onFailure(ex);
+                        return;
+                    }
+                    completeSignIn(idToken, null, accountBuilder, listener);
+                });
+    }
+
+    /**
+     * Delivers an access token covering the given scopes without any UI: the current grant's
+     * token, refreshed if needed, when it covers them, otherwise a still valid token from an
+     * earlier grant that does. Fails with {@link ScopesNotGrantedException} when no grant
+     * covers the scopes; call {@link #requestScopes(Activity, int, String, String...)} then.
+     */
+    public void getAccessToken(@NonNull Collection<String> scopes,
+                               @NonNull OnTokenListener listener) {
+        AuthState state = mAuthStateManager.getCurrent();
+        if (!state.isAuthorized()) {
+            listener.onFailure(new Exception("User is not signed in"));
+            return;
+        }
+
+        SortedSet<String> requested = ScopeTokenCache.canonicalize(scopes);
+        if (ScopeTokenCache.canonicalize(state.getScope()).containsAll(requested)) {
+            TokenRefreshCoordinator.getInstance(mContext).performActionWithFreshTokens(
+                    getAuthorizationService(), (accessToken, idToken, ex) -> {
+                        if (ex != null || accessToken == null) {
+                            listener.onFailure(ex != null ? ex : UNKNOWN_ERROR);
+                            return;
+                        }
+                        listener.onSuccess(accessToken);
+                    });
             return;
         }
 
+        String cached = ScopeTokenCache.getInstance(mContext)
+                .get(mAuthStateManager.getActiveAccount(), requested);
+        if (cached != null) {
+            listener.onSuccess(cached);
+            return;
+        }
+        listener.onFailure(new ScopesNotGrantedException(requested));
+    }
+
+    /**
+     * Asks the signed-in user to grant additional scopes, merging them into the existing grant
+     * with Google's incremental authorization (`include_granted_scopes`) so that the new tokens
+     * cover both. The token of the current grant stays available to
+     * {@link #getAccessToken(Collection, OnTokenListener)}. The result is delivered to
+     * `onActivityResult` as with {@link #signIn(Activity, int)}; if the user declines or the
+     * exchange fails, {@link #parseAuthResultFromIntent(Intent, OnSignInListener)} reports a
+     * {@link ScopesNotGrantedException} and the existing grant is kept as it is.
+     */
+    public void requestScopes(@NonNull Activity activity, int requestCode,
+                              @NonNull String scope, @NonNull String... scopes) {
+        AuthState state = mAuthStateManager.getCurrent();
+        if (!state.isAuthorized() || mServiceConfiguration == null) {
+            signIn(activity, requestCode);
+            return;
+        }
+
+        String subject = mAuthStateManager.getActiveAccount();
+        List<String> requested = new ArrayList<>(Arrays.asList(scopes));
+        requested.add(scope);
+        requested.add(mOptions.getScopes());
+        requested.add(state.getScope());
+        SortedSet<String> merged = ScopeTokenCache.canonicalize(requested);
+
+        AuthorizationRequest.Builder authRequestBuilder = new AuthorizationRequest.Builder(
+                mServiceConfiguration,
+                mConfiguration.getClientId(),
+                mOptions.getResponseType(),
+                mConfiguration.getRedirectUri())
+                .setScopes(merged)
+                .setAdditionalParameters(
+                        Collections.singletonMap("include_granted_scopes", "true"));
+        JSONObject profile = subject != null
+                ? mAuthStateManager.getAccounts().get(subject) : null;
+        if (profile != null && profile.has("email")) {
+            authRequestBuilder.setLoginHint(profile.optString("email"));
+        }
+
+        Intent authIntent = getAuthorizationRequestIntent(authRequestBuilder.build(), null);
+        mPendingScopeRequest = new PendingScopeRequest(merged, state.getRefreshToken());
+        mBrowserSample = Metrics.begin(GSignInEvent.Phase.BROWSER);
+        activity.startActivityForResult(authIntent, requestCode);
+    }
+
+    /**
+     * Requests scopes from the activity the client was created with, see
+     * {@link #requestScopes(Activity, int, String, String...)}.
+     */
+    public void requestScopes(int requestCode, @NonNull String scope, @NonNull String... scopes) {
+        requestScopes(requireActivity(), requestCode, scope, scopes);
+    }
+
+    public void parseAuthResultFromIntent(Intent data, OnSignInListener listener) {
+        String accountToRestore = mAccountToRestore;
+        mAccountToRestore = null;
+        parseSignInResult(data, accountToRestore != null
+                ? restoreAccountOnFailure(accountToRestore, listener) : listener);
+    }
+
+    private OnSignInListener restoreAccountOnFailure(String subject, OnSignInListener listener) {
+        return new OnSignInListener() {
+            @Override
+            public void onSuccess(@NonNull GSignInAccount account) {
+                listener.onSuccess(account);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                try {
+                    mAuthStateManager.switchAccount(subject);
+                    if (mTokenRefreshMarginMs >= 0) {
+                        Dispatcher.runOnMainThread(
+                                () -> TokenRefreshScheduler.getInstance(mContext).reschedule());
+                    }
+                } catch (IllegalArgumentException | IllegalStateException restoreEx) {
+                    Log.w(TAG, "Failed to restore account " + subject, restoreEx);
+                }
+                listener.onFailure(e);
+            }
+        };
+    }
+
+    private void parseSignInResult(Intent data, OnSignInListener listener) {
+        // an incremental authorization returns a response even though the user is authorized
         AuthorizationResponse resp = AuthorizationResponse.fromIntent(data);
         AuthorizationException ex = AuthorizationException.fromIntent(data);
+        PendingScopeRequest scopeRequest = mPendingScopeRequest;
+        mPendingScopeRequest = null;
+        if (scopeRequest != null) {
+            finishBrowserSample(resp, ex);
+            completeScopeRequest(scopeRequest, resp, ex, listener);
+            return;
+        }
+
+        if (resp == null && ex == null && mAuthStateManager.getCurrent().isAuthorized()) {
+            Log.i(TAG, "User is already authenticated, proceeding to token activity");
+            AuthState state = mAuthStateManager.getCurrent();
+            completeSignIn(state.getIdToken(), null,
+                    newAccountBuilder(state.getLastAuthorizationResponse()), listener);
+            return;
+        }
+
+        finishBrowserSample(resp, ex);
         if (resp == null && ex == null) {
             listener.onFailure(UNKNOWN_ERROR);
             return;
@@ -219,32 +793,372 @@ public class GAppAuth {
 
         if (resp == null) {
             Log.d(TAG, ex.toString());
+            warmUpBrowser();
             listener.onFailure(ex);
             return;
         }
-        mAccountBuilder.setServerAuthCode(resp.authorizationCode);
+        GSignInAccount.Builder accountBuilder = newAccountBuilder(resp);
 
-        mAuthService.performTokenRequest(resp.createTokenExchangeRequest(), new AuthorizationService.TokenResponseCallback() {
-            @Override
-            public void onTokenRequestCompleted(@Nullable TokenResponse response, @Nullable AuthorizationException ex) {
-                if (response == null) {
-                    Log.d(TAG, "authorization failed, check ex for more details", ex);
-                    listener.onFailure(ex != null ? ex : UNKNOWN_ERROR);
-                    return;
-                }
-                // exchange succeeded
-                mAuthStateManager.updateAfterTokenResponse(response, ex);
-                mAuthStateManager.getCurrent().performActionWithFreshTokens(mAuthService, new AuthState.AuthStateAction() {
+        Metrics.Sample exchangeSample = Metrics.begin(GSignInEvent.Phase.TOKEN_EXCHANGE);
+        RetryPolicy.getDefault().performTokenRequest(getAuthorizationService(),
+                resp.createTokenExchangeRequest(), NoClientAuthentication.INSTANCE,
+                new AuthorizationService.TokenResponseCallback() {
                     @Override
-                    public void execute(@Nullable String accessToken, @Nullable String idToken, @Nullable AuthorizationException ex) {
-                        fetchUserInfo(accessToken, ex, listener);
+                    public void onTokenRequestCompleted(@Nullable TokenResponse response, @Nullable AuthorizationException ex) {
+                        if (response == null) {
+                            Log.d(TAG, "authorization failed, check ex for more details", ex);
+                            exchangeSample.failure(ex);
+                            listener.onFailure(ex != null ? ex : UNKNOWN_ERROR);
+                            return;
+                        }
+                        // exchange succeeded
+                        exchangeSample.success();
+                        if (mVerifyIdToken) {
+                            // only keep the tokens once the ID token has checked out
+                            verifyIdToken(response, resp.request.nonce,
+                                    resp.request.configuration, listener, claims -> {
+                                        storeTokenResponse(response);
+                                        completeSignIn(response.idToken, claims,
+                                                accountBuilder, listener);
+                                    });
+                            return;
+                        }
+                        storeTokenResponse(response);
+                        completeSignIn(response.idToken, null, accountBuilder, listener);
                     }
                 });
+    }
+
+    /**
+     * Exchanges the code of an incremental authorization without touching the stored grant, and
+     * merges the new tokens into it only once the exchange, and ID token verification if enabled,
+     * succeeded. A declined or failed request leaves the user signed in with the grant they had.
+     */
+    private void completeScopeRequest(PendingScopeRequest scopeRequest,
+                                      @Nullable AuthorizationResponse resp,
+                                      @Nullable AuthorizationException ex,
+                                      OnSignInListener listener) {
+        OnSignInListener scopesListener = new OnSignInListener() {
+            @Override
+            public void onSuccess(@NonNull GSignInAccount account) {
+                listener.onSuccess(account);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                listener.onFailure(e instanceof ScopesNotGrantedException
+                        ? e : new ScopesNotGrantedException(scopeRequest.scopes, e));
+            }
+        };
+        if (resp == null) {
+            Log.d(TAG, "Incremental authorization failed", ex);
+            scopesListener.onFailure(ex != null ? ex : UNKNOWN_ERROR);
+            return;
+        }
+        GSignInAccount.Builder accountBuilder = newAccountBuilder(resp);
+
+        Metrics.Sample exchangeSample = Metrics.begin(GSignInEvent.Phase.TOKEN_EXCHANGE);
+        RetryPolicy.getDefault().performTokenRequest(getAuthorizationService(),
+                resp.createTokenExchangeRequest(), NoClientAuthentication.INSTANCE,
+                (response, tokenEx) -> {
+                    if (response == null) {
+                        exchangeSample.failure(tokenEx);
+                        scopesListener.onFailure(tokenEx != null ? tokenEx : UNKNOWN_ERROR);
+                        return;
+                    }
+                    exchangeSample.success();
+                    if (mVerifyIdToken) {
+                        verifyIdToken(response, resp.request.nonce, resp.request.configuration,
+                                scopesListener,
+                                claims -> mergeScopeGrant(scopeRequest, resp, response, claims,
+                                        accountBuilder, scopesListener));
+                        return;
+                    }
+                    mergeScopeGrant(scopeRequest, resp, response, null, accountBuilder,
+                            scopesListener);
+                });
+    }
+
+    private void mergeScopeGrant(PendingScopeRequest scopeRequest,
+                                 AuthorizationResponse resp,
+                                 TokenResponse response,
+                                 @Nullable JSONObject claims,
+                                 GSignInAccount.Builder accountBuilder,
+                                 OnSignInListener listener) {
+        // the user may have signed out or switched accounts while the browser was open
+        boolean[] applied = new boolean[1];
+        AuthState merged = mAuthStateManager.update(state -> {
+            applied[0] = state.isAuthorized()
+                    && TextUtils.equals(scopeRequest.refreshToken, state.getRefreshToken());
+            if (!applied[0]) {
+                return null;
+            }
+            state.update(resp, null);
+            state.update(withRefreshToken(response, scopeRequest.refreshToken), null);
+            return state;
+        });
+        if (!applied[0]) {
+            listener.onFailure(new IllegalStateException(
+                    "Session changed during incremental authorization"));
+            return;
+        }
+        ScopeTokenCache.getInstance(mContext)
+                .put(mAuthStateManager.getActiveAccount(), merged);
+        if (mTokenRefreshMarginMs >= 0) {
+            Dispatcher.runOnMainThread(() -> TokenRefreshScheduler.getInstance(mContext).reschedule());
+        }
+        completeSignIn(response.idToken, claims, accountBuilder, listener);
+    }
+
+    /**
+     * Google only returns a refresh token for the first grant, so the merged grant keeps the
+     * one it had.
+     */
+    private static TokenResponse withRefreshToken(TokenResponse response,
+                                                  @Nullable String refreshToken) {
+        if (response.refreshToken != null || refreshToken == null) {
+            return response;
+        }
+        return new TokenResponse.Builder(response.request)
+                .setTokenType(response.tokenType)
+                .setAccessToken(response.accessToken)
+                .setAccessTokenExpirationTime(response.accessTokenExpirationTime)
+                .setIdToken(response.idToken)
+                .setRefreshToken(refreshToken)
+                .setScope(response.scope)
+                .setAdditionalParameters(response.additionalParameters)
+                .build();
+    }
+
+    private void finishBrowserSample(@Nullable AuthorizationResponse resp,
+                                     @Nullable AuthorizationException ex) {
+        Metrics.Sample sample = mBrowserSample;
+        if (sample == null) {
+            return;
+        }
+        mBrowserSample = null;
+        if (resp != null) {
+            sample.success();
+        } else if (AuthorizationException.GeneralErrors.USER_CANCELED_AUTH_FLOW.equals(ex)) {
+            sample.cancelled();
+        } else {
+            sample.failure(ex);
+        }
+    }
+
+    private void storeTokenResponse(TokenResponse response) {
+        AuthState state = mAuthStateManager.updateAfterTokenResponse(response, null);
+        ScopeTokenCache.getInstance(mContext)
+                .put(mAuthStateManager.getActiveAccount(), state);
+        if (mTokenRefreshMarginMs >= 0) {
+            Dispatcher.runOnMainThread(() -> TokenRefreshScheduler.getInstance(mContext).reschedule());
+        }
+    }
+
+    private void verifyIdToken(TokenResponse response, @Nullable String nonce,
+                               AuthorizationServiceConfiguration serviceConfiguration,
+                               OnSignInListener listener,
+                               OnIdTokenVerifiedListener verifiedListener) {
+        mExecutor.execute(() -> {
+            JSONObject claims;
+            try {
+                claims = IdTokenVerifier.getInstance(mContext).verify(
+                        response.idToken,
+                        mConfiguration.getClientId(),
+                        nonce,
+                        serviceConfiguration,
+                        mConfiguration.getConnectionBuilder());
+            } catch (IdTokenVerifier.InvalidIdTokenException | IOException e) {
+                Log.e(TAG, "ID token verification failed", e);
+                listener.onFailure(e);
+                return;
+            }
+            verifiedListener.onVerified(claims);
+        });
+    }
+
+    /**
+     * Returns a builder for the account a flow delivers, carrying the code of the given
+     * authorization. Each flow has its own, as flows on a shared client run concurrently.
+     */
+    private GSignInAccount.Builder newAccountBuilder(@Nullable AuthorizationResponse resp) {
+        GSignInAccount.Builder accountBuilder =
+                new GSignInAccount.Builder().setKeepRawJson(!mCompactUserInfo);
+        if (resp != null) {
+            accountBuilder.setServerAuthCode(resp.authorizationCode);
+        }
+        return accountBuilder;
+    }
+
+    private void completeSignIn(@Nullable String idToken, @Nullable JSONObject claims,
+                                GSignInAccount.Builder accountBuilder,
+                                OnSignInListener listener) {
+        if (mAccountFromIdToken && claims == null && idToken != null) {
+            try {
+                claims = Jwt.parse(idToken).getClaims();
+            } catch (JSONException e) {
+                Log.w(TAG, "Failed to parse ID token, falling back to userinfo", e);
+            }
+        }
+
+        if (mAccountFromIdToken && claims != null && hasRequestedClaims(claims)) {
+            listener.onSuccess(accountBuilder.fromIdTokenClaims(claims).build());
+            return;
+        }
+        fetchUserInfoWithFreshTokens(accountBuilder, listener);
+    }
+
+    private boolean hasRequestedClaims(JSONObject claims) {
+        if (!claims.has("sub")) {
+            return false;
+        }
+        if (mOptions.hasScope("email") && !claims.has("email")) {
+            return false;
+        }
+        return !mOptions.hasScope("profile") || claims.has("name");
+    }
+
+    /**
+     * Fetches the signed-in user's profile from the userinfo endpoint, for callers that need
+     * claims the ID token does not carry.
+     */
+    public void requestUserInfo(@NonNull OnSignInListener listener) {
+        fetchUserInfoWithFreshTokens(newAccountBuilder(
+                mAuthStateManager.getCurrent().getLastAuthorizationResponse()), listener);
+    }
+
+    /**
+     * Signs in an already-authorized user without any UI. The last known account is delivered
+     * straight away from the userinfo cache, in memory or on disk, and the tokens are refreshed
+     * in the background if they are due; only when no account is cached are fresh tokens and
+     * userinfo fetched first. Fails if the user has not signed in.
+     */
+    public void silentSignIn(@NonNull OnSignInListener listener) {
+        AuthState state = mAuthStateManager.getCurrent();
+        if (!state.isAuthorized() || mConfiguration.hasConfigurationChanged()) {
+            listener.onFailure(new Exception("User is not signed in"));
+            return;
+        }
+
+        GSignInAccount.Builder accountBuilder =
+                newAccountBuilder(state.getLastAuthorizationResponse());
+
+        IdToken idToken = state.getParsedIdToken();
+        GSignInAccount snapshot = UserInfoCache.getInstance(mContext).peek(
+                UserInfoCache.keyFor(idToken != null ? idToken.subject : null, state.getScope()));
+        if (snapshot == null) {
+            Log.d(TAG, "No cached account, signing in with fresh tokens");
+            completeSignIn(state.getIdToken(), null, accountBuilder, listener);
+            return;
+        }
+
+        listener.onSuccess(accountBuilder.fromAccount(snapshot).build());
+        if (state.getNeedsTokenRefresh()) {
+            TokenRefreshCoordinator.getInstance(mContext).refresh(getAuthorizationService(),
+                    (accessToken, refreshedIdToken, ex) -> {
+                        if (ex != null) {
+                            Log.w(TAG, "Background token refresh after silent sign-in failed", ex);
+                        }
+                    });
+        }
+    }
+
+    @VisibleForTesting
+    AuthorizationService getAuthorizationService() {
+        return getServiceSlot().service;
+    }
+
+    private ServiceSlot getServiceSlot() {
+        while (true) {
+            ServiceSlot slot = publishService(mServiceSlot.get());
+            if (slot != null) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Returns the service for background work queued while the given generation was current,
+     * creating it if needed, or null if the client has been disposed or destroyed since.
+     */
+    @Nullable
+    private ServiceSlot getServiceSlot(int generation) {
+        while (!mDestroyed) {
+            ServiceSlot slot = mServiceSlot.get();
+            if (slot.generation != generation) {
+                return null;
+            }
+            slot = publishService(slot);
+            if (slot != null) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the slot if it has a service, or else a slot with a new service, or null if the
+     * slot was replaced meanwhile. The service is created without holding any lock, as that
+     * lists the installed browsers and binds the Custom Tabs service, and is then published by
+     * compare-and-set; if another caller or {@link #dispose()} got there first, it is disposed
+     * again.
+     */
+    @Nullable
+    private ServiceSlot publishService(ServiceSlot slot) {
+        if (slot.service != null) {
+            return slot;
+        }
+        BrowserDescriptor browser = BrowserCache.getInstance(mContext).resolve(mBrowserMatcher);
+        ServiceSlot published = new ServiceSlot(
+                slot.generation, createAuthorizationService(browser), browser);
+        // only a live service has a browser that can go stale; registered before publishing so
+        // that dispose() cannot miss it, and harmless while there is no service
+        BrowserCache.getInstance(mContext).addListener(mBrowsersChangedListener);
+        if (!mServiceSlot.compareAndSet(slot, published)) {
+            published.service.dispose();
+            return null;
+        }
+        return published;
+    }
+
+    private int getServiceGeneration() {
+        return mServiceSlot.get().generation;
+    }
+
+    /**
+     * Releases the {@link AuthorizationService}, unbinding its Custom Tabs service connection.
+     * Done automatically when the activity the client was created with is destroyed; call it
+     * when a shared client is no longer needed. The client stays usable and creates a new
+     * service when it is next called; background work queued before, such as warming up the
+     * browser, is dropped instead of creating one.
+     */
+    @MainThread
+    public void dispose() {
+        ServiceSlot slot;
+        do {
+            slot = mServiceSlot.get();
+        } while (!mServiceSlot.compareAndSet(
+                slot, new ServiceSlot(slot.generation + 1, null, null)));
+        BrowserCache.getInstance(mContext).removeListener(mBrowsersChangedListener);
+        // the prepared intent belongs to the session being unbound
+        mAuthIntent.set(null);
+        if (slot.service != null) {
+            slot.service.dispose();
+        }
+    }
+
+    private void fetchUserInfoWithFreshTokens(GSignInAccount.Builder accountBuilder,
+                                              OnSignInListener listener) {
+        TokenRefreshCoordinator.getInstance(mContext).performActionWithFreshTokens(getAuthorizationService(), new AuthState.AuthStateAction() {
+            @Override
+            public void execute(@Nullable String accessToken, @Nullable String idToken, @Nullable AuthorizationException ex) {
+                fetchUserInfo(accessToken, ex, accountBuilder, listener);
             }
         });
     }
 
-    private void fetchUserInfo(String accessToken, AuthorizationException ex, OnSignInListener listener) {
+    private void fetchUserInfo(String accessToken, AuthorizationException ex,
+                               GSignInAccount.Builder accountBuilder, OnSignInListener listener) {
         Log.d(TAG, "fetchUserInfo");
         if (ex != null) {
             Log.e(TAG, "Token refresh failed when fetching user info");
@@ -264,16 +1178,20 @@ public class GAppAuth {
 
         Log.d(TAG, userInfoEndpoint.toString());
 
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(() -> {
+        AuthState state = mAuthStateManager.getCurrent();
+        IdToken idToken = state.getParsedIdToken();
+        String cacheKey = UserInfoCache.keyFor(
+                idToken != null ? idToken.subject : null, state.getScope());
+
+        mExecutor.execute(() -> {
             try {
-                HttpURLConnection conn = mConfiguration.getConnectionBuilder().openConnection(
-                        userInfoEndpoint);
-                conn.setRequestProperty("Authorization", "Bearer " + accessToken);
-                conn.setInstanceFollowRedirects(false);
-                String response = Okio.buffer(Okio.source(conn.getInputStream()))
-                        .readString(StandardCharsets.UTF_8);
-                listener.onSuccess(mAccountBuilder.fromJson(response).build());
+                GSignInAccount account = UserInfoCache.getInstance(mContext).fetch(
+                        userInfoEndpoint,
+                        accessToken,
+                        cacheKey,
+                        mConfiguration.getConnectionBuilder(),
+                        accountBuilder);
+                listener.onSuccess(account);
             } catch (IOException ioEx) {
                 Log.e(TAG, "Network error when querying userinfo endpoint", ioEx);
                 listener.onFailure(ioEx);
@@ -281,6 +1199,194 @@ public class GAppAuth {
         });
     }
 
+    public static final class Builder {
+        private final Context context;
+        private final GSignInOptions options;
+        private ExecutorService executor;
+        private long tokenRefreshMarginMs = -1;
+        private boolean writeBehind;
+        private boolean verifyIdToken;
+        private boolean accountFromIdToken;
+        private boolean compactUserInfo;
+        private AuthStateStore authStateStore;
+        private BrowserMatcher browserMatcher = AnyBrowserMatcher.INSTANCE;
+        private AuthorizationServiceFactory serviceFactory = AuthorizationService::new;
+
+        /**
+         * @param context the application, for a client shared across screens, or an activity,
+         *                which then launches sign-in when no activity is passed.
+         */
+        public Builder(@NonNull Context context, @NonNull GSignInOptions options) {
+            this.context = context;
+            this.options = options;
+        }
+
+        /**
+         * Sets the executor used for the SDK's network and persistence work. Defaults to the
+         * shared, bounded {@link Dispatcher#getDefault()} pool.
+         */
+        @NonNull
+        public GAppAuth.Builder setExecutor(@NonNull ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Opts in to refreshing the access token in the background `margin` before it expires,
+         * while the app is in the foreground. See {@link TokenRefreshScheduler}.
+         */
+        @NonNull
+        public GAppAuth.Builder enableTokenRefresh(long margin, @NonNull TimeUnit unit) {
+            this.tokenRefreshMarginMs = unit.toMillis(margin);
+            return this;
+        }
+
+        /**
+         * Persists auth state updates asynchronously, coalescing bursts of updates into one
+         * write. See {@link AuthStateManager#setWriteBehind(boolean)}.
+         */
+        @NonNull
+        public GAppAuth.Builder enableWriteBehindPersistence() {
+            this.writeBehind = true;
+            return this;
+        }
+
+        /**
+         * Sets where the auth state is persisted. Defaults to a
+         * {@link net.openid.appauthdemo.SharedPreferencesAuthStateStore}. The store is shared by
+         * the whole process; initializing a client with a different store than the one already
+         * in use fails with an {@link IllegalStateException}.
+         */
+        @NonNull
+        public GAppAuth.Builder setAuthStateStore(@NonNull AuthStateStore store) {
+            this.authStateStore = store;
+            return this;
+        }
+
+        /**
+         * Pins the browser sign-in is launched in, e.g. an {@link ExactBrowserMatcher} or
+         * {@link net.openid.appauth.browser.VersionedBrowserMatcher#CHROME_CUSTOM_TAB}. Defaults
+         * to the user's default browser, preferring one that supports Custom Tabs.
+         */
+        @NonNull
+        public GAppAuth.Builder setBrowserMatcher(@NonNull BrowserMatcher matcher) {
+            this.browserMatcher = matcher;
+            return this;
+        }
+
+        @VisibleForTesting
+        @NonNull
+        GAppAuth.Builder setAuthorizationServiceFactory(
+                @NonNull AuthorizationServiceFactory factory) {
+            this.serviceFactory = factory;
+            return this;
+        }
+
+        /**
+         * Verifies the signature and claims of the ID token locally after the code exchange,
+         * failing sign-in if it is invalid. See {@link IdTokenVerifier}.
+         */
+        @NonNull
+        public GAppAuth.Builder enableIdTokenVerification() {
+            this.verifyIdToken = true;
+            return this;
+        }
+
+        /**
+         * Builds the signed-in account from the ID token claims instead of querying the
+         * userinfo endpoint, saving a round-trip per sign-in. Userinfo is still fetched when
+         * the token lacks a claim the requested scopes call for, or on
+         * {@link GAppAuth#requestUserInfo(OnSignInListener)}.
+         */
+        @NonNull
+        public GAppAuth.Builder useIdTokenClaims() {
+            this.accountFromIdToken = true;
+            return this;
+        }
+
+        /**
+         * Streams the userinfo response into the account keeping only the profile fields, so
+         * that the response is never held in memory as a whole.
+         * {@link GSignInAccount#getJsonResult()} then returns JSON rebuilt from those fields
+         * instead of the full response it returns by default.
+         */
+        @NonNull
+        public GAppAuth.Builder compactUserInfo() {
+            this.compactUserInfo = true;
+            return this;
+        }
+
+        /**
+         * Creates and initializes the client on the calling thread. See
+         * {@link #buildAsync(OnInitListener)}.
+         */
+        @NonNull
+        public GAppAuth build() {
+            GAppAuth appAuth = new GAppAuth(this);
+            appAuth.init(appAuth.initListener);
+            return appAuth;
+        }
+
+        /**
+         * Creates and initializes the process-wide client on the calling thread, see
+         * {@link GAppAuth#getInstance()}. If it already exists, it is returned as is and the
+         * builder's settings are ignored.
+         */
+        @NonNull
+        public GAppAuth buildShared() {
+            GAppAuth appAuth = sInstance;
+            if (appAuth == null) {
+                synchronized (GAppAuth.class) {
+                    appAuth = sInstance;
+                    if (appAuth == null) {
+                        appAuth = build();
+                        sInstance = appAuth;
+                        return appAuth;
+                    }
+                }
+            }
+            Log.w(TAG, "GAppAuth already initialized, ignoring the new settings");
+            return appAuth;
+        }
+
+        /**
+         * Creates the client and initializes it on the executor, keeping the package manager
+         * lookup, configuration hashing and auth state reads off the calling thread. The ready
+         * client, or the reason initialization failed, is delivered on the main thread.
+         */
+        @MainThread
+        public void buildAsync(@NonNull OnInitListener listener) {
+            GAppAuth appAuth = new GAppAuth(this);
+            appAuth.mExecutor.execute(() -> {
+                Exception[] error = new Exception[1];
+                try {
+                    boolean prepared = appAuth.prepare(new OnSignOutListener() {
+                        @Override
+                        public void onSuccess() {
+                        }
+
+                        @Override
+                        public void onFailure(@NonNull Exception e) {
+                            error[0] = e;
+                        }
+                    });
+                    if (!prepared) {
+                        Dispatcher.postToMainThread(() -> listener.onFailure(error[0]));
+                        return;
+                    }
+                    appAuth.initServiceConfiguration(appAuth.initListener);
+                } catch (RuntimeException e) {
+                    // e.g. a store that cannot be read; the executor would swallow it and
+                    // leave the listener waiting
+                    Log.e(TAG, "Failed to initialize GAppAuth", e);
+                    Dispatcher.postToMainThread(() -> listener.onFailure(e));
+                    return;
+                }
+                Dispatcher.postToMainThread(() -> listener.onReady(appAuth));
+            });
+        }
+    }
+
     public interface OnSignInListener {
         void onSuccess(@NonNull GSignInAccount account);
 
@@ -292,4 +1398,78 @@ public class GAppAuth {
 
         void onFailure(@NonNull Exception e);
     }
+
+    public interface OnTokenListener {
+        void onSuccess(@NonNull String accessToken);
+
+        void onFailure(@NonNull Exception e);
+    }
+
+    /**
+     * The user has not granted the requested scopes in any grant that is still valid.
+     */
+    public static final class ScopesNotGrantedException extends Exception {
+        private final SortedSet<String> mScopes;
+
+        ScopesNotGrantedException(SortedSet<String> scopes) {
+            this(scopes, null);
+        }
+
+        ScopesNotGrantedException(SortedSet<String> scopes, @Nullable Throwable cause) {
+            super("Scopes not granted: " + scopes, cause);
+            mScopes = Collections.unmodifiableSortedSet(scopes);
+        }
+
+        @NonNull
+        public SortedSet<String> getScopes() {
+            return mScopes;
+        }
+    }
+
+    @VisibleForTesting
+    interface AuthorizationServiceFactory {
+        @NonNull
+        AuthorizationService create(@NonNull Context context,
+                                    @NonNull AppAuthConfiguration configuration);
+    }
+
+    private interface OnIdTokenVerifiedListener {
+        void onVerified(@NonNull JSONObject claims);
+    }
+
+    private static final class ServiceSlot {
+        final int generation;
+        @Nullable
+        final AuthorizationService service;
+        @Nullable
+        final BrowserDescriptor browser;
+
+        ServiceSlot(int generation, @Nullable AuthorizationService service,
+                    @Nullable BrowserDescriptor browser) {
+            this.generation = generation;
+            this.service = service;
+            this.browser = browser;
+        }
+    }
+
+    private static final class PendingScopeRequest {
+        final SortedSet<String> scopes;
+        @Nullable
+        final String refreshToken;
+
+        PendingScopeRequest(SortedSet<String> scopes, @Nullable String refreshToken) {
+            this.scopes = scopes;
+            this.refreshToken = refreshToken;
+        }
+    }
+
+    public interface OnInitListener {
+        void onReady(@NonNull GAppAuth appAuth);
+
+        void onFailure(@NonNull Exception e);
+    }
+
+    public interface OnMetricsListener {
+        void onEvent(@NonNull GSignInEvent event);
+    }
 }
@@ -1,6 +1,8 @@
 package org.gappauth.sdk.entity;
 
 import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -8,9 +10,21 @@ import androidx.annotation.NonNull;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
 public class GSignInAccount {
 
-    private final String jsonResult;
+    private static final String TAG = GSignInAccount.class.getSimpleName();
+
+    private volatile String jsonResult;
     private final String id;
     private final String email;
     private final String displayName;
@@ -28,8 +42,28 @@ public class GSignInAccount {
         this.serverAuthCode = serverAuthCode;
     }
 
+    /**
+     * Returns the user info as JSON: the full response, or ID token claims, unless the account
+     * was built with {@link Builder#setKeepRawJson(boolean) setKeepRawJson(false)}, in which case
+     * a JSON object is rebuilt from the parsed profile fields on first access.
+     */
     public String getJsonResult() {
-        return jsonResult;
+        String json = jsonResult;
+        if (json == null) {
+            JSONObject jsonObject = new JSONObject();
+            try {
+                jsonObject.put("sub", id);
+                jsonObject.put("email", email);
+                jsonObject.put("name", displayName);
+                jsonObject.put("given_name", givenName);
+                jsonObject.put("picture", photoUrl != null ? photoUrl.toString() : "");
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to serialize user info", e);
+            }
+            json = jsonObject.toString();
+            jsonResult = json;
+        }
+        return json;
     }
 
     public String getId() {
@@ -72,6 +106,8 @@ public class GSignInAccount {
     public static final class Builder {
         private static final String TAG = Builder.class.getSimpleName();
 
+        private boolean hasUserInfo;
+        private boolean keepRawJson = true;
         private String jsonResult;
         private String id;
         private String email;
@@ -82,17 +118,142 @@ public class GSignInAccount {
 
         @NonNull
         public GSignInAccount.Builder fromJson(String jsonStr) {
-            this.jsonResult = jsonStr;
             try {
-                JSONObject jsonObject = new JSONObject(jsonStr);
-                this.id = jsonObject.optString("sub", "");
-                this.email = jsonObject.optString("email", "");
-                this.displayName = jsonObject.optString("name", "");
-                this.givenName = jsonObject.optString("given_name", "");
-                this.photoUrl = Uri.parse(jsonObject.optString("picture", ""));
+                fromJsonObject(jsonStr, new JSONObject(jsonStr));
             } catch (JSONException e) {
                 Log.e(TAG, "Failed to parse userinfo response", e);
+                this.hasUserInfo = true;
+                this.jsonResult = keepRawJson ? jsonStr : null;
+            }
+            return this;
+        }
+
+        private void fromJsonObject(String jsonStr, JSONObject jsonObject) {
+            this.hasUserInfo = true;
+            this.jsonResult = keepRawJson ? jsonStr : null;
+            this.id = jsonObject.optString("sub", "");
+            this.email = jsonObject.optString("email", "");
+            this.displayName = jsonObject.optString("name", "");
+            this.givenName = jsonObject.optString("given_name", "");
+            this.photoUrl = Uri.parse(jsonObject.optString("picture", ""));
+        }
+
+        /**
+         * Whether the full userinfo response, or ID token claims, is kept for
+         * {@link GSignInAccount#getJsonResult()}. On by default. When off,
+         * {@link #fromJson(BufferedSource, long)} parses the response in a single streaming pass
+         * that keeps only the profile fields and never holds the response in memory as a whole.
+         */
+        @NonNull
+        public GSignInAccount.Builder setKeepRawJson(boolean keepRawJson) {
+            this.keepRawJson = keepRawJson;
+            return this;
+        }
+
+        /**
+         * Reads the userinfo response straight from `source`, failing if it is larger than
+         * `maxBytes` or is not a JSON object.
+         */
+        @NonNull
+        public GSignInAccount.Builder fromJson(@NonNull BufferedSource source, long maxBytes)
+                throws IOException {
+            Source limited = new LimitedSource(source, maxBytes);
+            if (keepRawJson) {
+                String jsonStr;
+                try (BufferedSource buffered = Okio.buffer(limited)) {
+                    jsonStr = buffered.readUtf8();
+                }
+                try {
+                    fromJsonObject(jsonStr, new JSONObject(jsonStr));
+                } catch (JSONException e) {
+                    throw new IOException("Failed to parse userinfo response", e);
+                }
+                return this;
+            }
+
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    Okio.buffer(limited).inputStream(), StandardCharsets.UTF_8));
+            try {
+                String id = "";
+                String email = "";
+                String displayName = "";
+                String givenName = "";
+                String picture = "";
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "sub":
+                            id = nextString(reader);
+                            break;
+                        case "email":
+                            email = nextString(reader);
+                            break;
+                        case "name":
+                            displayName = nextString(reader);
+                            break;
+                        case "given_name":
+                            givenName = nextString(reader);
+                            break;
+                        case "picture":
+                            picture = nextString(reader);
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                this.hasUserInfo = true;
+                this.jsonResult = null;
+                this.id = id;
+                this.email = email;
+                this.displayName = displayName;
+                this.givenName = givenName;
+                this.photoUrl = Uri.parse(picture);
+            } catch (IllegalStateException e) {
+                throw new IOException("Failed to parse userinfo response", e);
+            }
+            return this;
+        }
+
+        private static String nextString(JsonReader reader) throws IOException {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                return reader.nextString();
             }
+            reader.skipValue();
+            return "";
+        }
+
+        /**
+         * Reads the user info from verified ID token claims, which carry the same fields as the
+         * userinfo response when the matching scopes were granted.
+         */
+        @NonNull
+        public GSignInAccount.Builder fromIdTokenClaims(@NonNull JSONObject claims) {
+            this.hasUserInfo = true;
+            this.jsonResult = keepRawJson ? claims.toString() : null;
+            this.id = claims.optString("sub", "");
+            this.email = claims.optString("email", "");
+            this.displayName = claims.optString("name", "");
+            this.givenName = claims.optString("given_name", "");
+            this.photoUrl = Uri.parse(claims.optString("picture", ""));
+            return this;
+        }
+
+        /**
+         * Copies the user info of a previously built account, keeping this builder's server
+         * auth code.
+         */
+        @NonNull
+        public GSignInAccount.Builder fromAccount(@NonNull GSignInAccount account) {
+            this.hasUserInfo = true;
+            this.jsonResult = account.jsonResult;
+            this.id = account.id;
+            this.email = account.email;
+            this.displayName = account.displayName;
+            this.givenName = account.givenName;
+            this.photoUrl = account.photoUrl;
             return this;
         }
 
@@ -104,11 +265,33 @@ public class GSignInAccount {
 
         @NonNull
         public GSignInAccount build() {
-            if (this.jsonResult == null) {
+            if (!this.hasUserInfo) {
                 throw new IllegalArgumentException("No User Info");
             }
             return new GSignInAccount(this.jsonResult, this.id, this.email, this.displayName,
                     this.givenName, this.photoUrl, this.serverAuthCode);
         }
     }
+
+    private static final class LimitedSource extends ForwardingSource {
+        private final long mMaxBytes;
+        private long mBytesRead;
+
+        LimitedSource(Source delegate, long maxBytes) {
+            super(delegate);
+            mMaxBytes = maxBytes;
+        }
+
+        @Override
+        public long read(@NonNull Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read > 0) {
+                mBytesRead += read;
+                if (mBytesRead > mMaxBytes) {
+                    throw new IOException("userinfo response exceeds " + mMaxBytes + " bytes");
+                }
+            }
+            return read;
+        }
+    }
 }
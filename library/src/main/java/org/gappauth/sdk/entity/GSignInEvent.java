@@ -0,0 +1,105 @@
+package org.gappauth.sdk.entity;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed phase of sign-in, reported to {@link org.gappauth.sdk.api.GAppAuth.OnMetricsListener}.
+ */
+public final class GSignInEvent {
+
+    public enum Phase {
+        /** Retrieving the OpenID discovery document, from the cache or the network. */
+        DISCOVERY,
+        /** The round-trip through the browser, from launching it to receiving the result. */
+        BROWSER,
+        /** Exchanging the authorization code for tokens. */
+        TOKEN_EXCHANGE,
+        /** Obtaining fresh tokens before an authorized request, refreshing them if needed. */
+        TOKEN_REFRESH,
+        /** Querying the userinfo endpoint. */
+        USERINFO,
+        /** Writing the auth state to its store. */
+        PERSIST
+    }
+
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        CANCELLED
+    }
+
+    /**
+     * Value of {@link #getBytes()} when the phase did not transfer a response body.
+     */
+    public static final long UNKNOWN_BYTES = -1;
+
+    private final Phase phase;
+    private final Outcome outcome;
+    private final long durationNanos;
+    private final long bytes;
+    private final boolean cacheHit;
+    private final Exception error;
+
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public GSignInEvent(Phase phase, Outcome outcome, long durationNanos, long bytes,
+                        boolean cacheHit, @Nullable Exception error) {
+        this.phase = phase;
+        this.outcome = outcome;
+        this.durationNanos = durationNanos;
+        this.bytes = bytes;
+        this.cacheHit = cacheHit;
+        this.error = error;
+    }
+
+    @NonNull
+    public Phase getPhase() {
+        return phase;
+    }
+
+    @NonNull
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public long getDuration(@NonNull TimeUnit unit) {
+        return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the bytes received (or written, for {@link Phase#PERSIST}), or
+     * {@link #UNKNOWN_BYTES}.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Whether the phase was served from a cache: a cached or revalidated (`304`) discovery
+     * document or userinfo response, or tokens that were still fresh.
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    @Nullable
+    public Exception getError() {
+        return error;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "GSignInEvent{" +
+                "phase=" + phase +
+                ", outcome=" + outcome +
+                ", durationMs=" + getDuration(TimeUnit.MILLISECONDS) +
+                ", bytes=" + bytes +
+                ", cacheHit=" + cacheHit +
+                ", error=" + error +
+                '}';
+    }
+}
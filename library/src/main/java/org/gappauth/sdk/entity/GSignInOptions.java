@@ -1,18 +1,24 @@
 package org.gappauth.sdk.entity;
 
+import android.text.TextUtils;
+
 import androidx.annotation.NonNull;
 
 import net.openid.appauth.ResponseTypeValues;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public class GSignInOptions {
     private final String clientId;
-    private final List<String> scopes;
+    private final SortedSet<String> scopes;
+    private final String scopeString;
     private final String responseType;
 
     @NonNull
@@ -32,7 +38,8 @@ public class GSignInOptions {
 
     private GSignInOptions(String clientId, List<String> scopes, String responseType) {
         this.clientId = clientId;
-        this.scopes = scopes;
+        this.scopes = Collections.unmodifiableSortedSet(new TreeSet<>(scopes));
+        this.scopeString = TextUtils.join(" ", this.scopes);
         this.responseType = responseType;
     }
 
@@ -42,11 +49,19 @@ public class GSignInOptions {
     }
 
     public String getScopes() {
-        StringBuffer stringBuffer = new StringBuffer();
-        for (String scope : scopes) {
-            stringBuffer.append(scope).append(" ");
-        }
-        return stringBuffer.toString().trim();
+        return scopeString;
+    }
+
+    /**
+     * Returns the requested scopes in canonical, sorted order.
+     */
+    @NonNull
+    public SortedSet<String> getScopeSet() {
+        return scopes;
+    }
+
+    public boolean hasScope(@NonNull String scope) {
+        return scopes.contains(scope);
     }
 
     @NonNull
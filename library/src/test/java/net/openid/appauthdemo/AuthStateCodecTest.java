@@ -0,0 +1,211 @@
+package net.openid.appauthdemo;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationRequest;
+import net.openid.appauth.AuthorizationResponse;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.AuthorizationServiceDiscovery;
+import net.openid.appauth.ResponseTypeValues;
+import net.openid.appauth.TokenResponse;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateCodecTest {
+
+    private static final String DISCOVERY_DOC = "{"
+            + "\"issuer\":\"https://accounts.example.com\","
+            + "\"authorization_endpoint\":\"https://accounts.example.com/auth\","
+            + "\"token_endpoint\":\"https://accounts.example.com/token\","
+            + "\"jwks_uri\":\"https://accounts.example.com/certs\","
+            + "\"response_types_supported\":[\"code\"],"
+            + "\"subject_types_supported\":[\"public\"],"
+            + "\"id_token_signing_alg_values_supported\":[\"RS256\"]"
+            + "}";
+    private static final String OTHER_DISCOVERY_DOC =
+            DISCOVERY_DOC.replace("/certs", "/oauth2/v3/certs");
+
+    private RecordingStore mStore;
+    private AuthState mState;
+
+    @Before
+    public void setUp() throws Exception {
+        mStore = new RecordingStore();
+        mState = authorizedState(DISCOVERY_DOC);
+    }
+
+    @Test
+    public void roundTrip_restoresTheState() throws Exception {
+        AuthStateCodec codec = new AuthStateCodec();
+        codec.write(mStore, "state", codec.encode(mState));
+
+        // a new codec has no documents cached, as after a process restart
+        AuthState restored = new AuthStateCodec().read(mStore, "state");
+
+        assertNotNull(restored);
+        assertEquals(mState.jsonSerializeString(), restored.jsonSerializeString());
+        assertNotNull(restored.getAuthorizationServiceConfiguration().discoveryDoc);
+    }
+
+    @Test
+    public void write_storesTheDiscoveryDocumentOnce() throws Exception {
+        AuthStateCodec codec = new AuthStateCodec();
+        codec.write(mStore, "state", codec.encode(mState));
+        codec.write(mStore, "state", codec.encode(mState));
+
+        assertFalse(mStore.read("state").contains("discoveryDoc\""));
+        assertEquals(1, mStore.docWrites);
+        // the state, the document and the index of the records referring to it
+        assertEquals(3, mStore.values.size());
+    }
+
+    @Test
+    public void write_otherDocument_deletesTheUnusedOne() throws Exception {
+        AuthStateCodec codec = new AuthStateCodec();
+        codec.write(mStore, "state", codec.encode(mState));
+        String oldDoc = onlyDocKey();
+
+        codec.write(mStore, "state", codec.encode(authorizedState(OTHER_DISCOVERY_DOC)));
+
+        assertNull(mStore.read(oldDoc));
+        assertNotEquals(oldDoc, onlyDocKey());
+        assertNotNull(new AuthStateCodec().read(mStore, "state")
+                .getAuthorizationServiceConfiguration().discoveryDoc);
+    }
+
+    @Test
+    public void write_null_deletesTheUnusedDocument() throws Exception {
+        AuthStateCodec codec = new AuthStateCodec();
+        codec.write(mStore, "state", codec.encode(mState));
+
+        codec.write(mStore, "state", null);
+
+        assertEquals(0, docKeys().size());
+    }
+
+    @Test
+    public void write_keepsADocumentAnotherRecordUses() throws Exception {
+        AuthStateCodec codec = new AuthStateCodec();
+        codec.write(mStore, "state", codec.encode(mState));
+        codec.write(mStore, "account.alice", codec.encode(mState));
+        String sharedDoc = onlyDocKey();
+
+        codec.write(mStore, "state", codec.encode(authorizedState(OTHER_DISCOVERY_DOC)));
+
+        assertNotNull(mStore.read(sharedDoc));
+        assertNotNull(new AuthStateCodec().read(mStore, "account.alice")
+                .getAuthorizationServiceConfiguration().discoveryDoc);
+    }
+
+    @Test
+    public void write_keepsADocumentStoredBeforeTheIndex() throws Exception {
+        AuthStateCodec codec = new AuthStateCodec();
+        codec.write(mStore, "account.alice", codec.encode(mState));
+        String legacyDoc = onlyDocKey();
+        // as written by a version without the index, which may not list every referrer
+        mStore.values.remove("discovery_refs");
+
+        AuthStateCodec upgraded = new AuthStateCodec();
+        upgraded.write(mStore, "state", upgraded.encode(mState));
+        upgraded.write(mStore, "state", upgraded.encode(authorizedState(OTHER_DISCOVERY_DOC)));
+
+        assertNotNull(mStore.read(legacyDoc));
+    }
+
+    @Test
+    public void read_missingState_returnsNull() throws Exception {
+        assertNull(new AuthStateCodec().read(mStore, "state"));
+    }
+
+    @Test
+    public void write_null_removesTheState() throws Exception {
+        AuthStateCodec codec = new AuthStateCodec();
+        codec.write(mStore, "state", codec.encode(mState));
+
+        codec.write(mStore, "state", null);
+
+        assertNull(mStore.read("state"));
+    }
+
+    private String onlyDocKey() {
+        List<String> keys = docKeys();
+        assertEquals(1, keys.size());
+        return keys.get(0);
+    }
+
+    private List<String> docKeys() {
+        List<String> keys = new ArrayList<>();
+        for (String key : mStore.values.keySet()) {
+            if (key.startsWith("discovery.")) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static AuthState authorizedState(String discoveryDoc) throws Exception {
+        AuthorizationServiceConfiguration configuration = new AuthorizationServiceConfiguration(
+                new AuthorizationServiceDiscovery(new JSONObject(discoveryDoc)));
+        AuthorizationRequest request = new AuthorizationRequest.Builder(configuration, "client",
+                ResponseTypeValues.CODE, Uri.parse("com.example:/oauth"))
+                .setScope("openid email")
+                .build();
+        AuthorizationResponse response = new AuthorizationResponse.Builder(request)
+                .setState(request.state)
+                .setAuthorizationCode("code")
+                .build();
+        TokenResponse tokenResponse = new TokenResponse.Builder(
+                response.createTokenExchangeRequest())
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken("access")
+                .setRefreshToken("refresh")
+                .setAccessTokenExpirationTime(
+                        System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+                .build();
+        return new AuthState(response, tokenResponse, null);
+    }
+
+    private static final class RecordingStore implements AuthStateStore {
+        final Map<String, String> values = new ConcurrentHashMap<>();
+        int docWrites;
+
+        @Nullable
+        @Override
+        public String read(@NonNull String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void write(@NonNull String key, @Nullable String value) {
+            if (key.startsWith("discovery.")) {
+                docWrites++;
+            }
+            if (value == null) {
+                values.remove(key);
+            } else {
+                values.put(key, value);
+            }
+        }
+    }
+}
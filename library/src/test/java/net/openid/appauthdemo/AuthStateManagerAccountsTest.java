@@ -0,0 +1,159 @@
+package net.openid.appauthdemo;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthState;
+
+import org.gappauth.sdk.TestSingletons;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.gappauth.sdk.TestAuthStates.authorizedState;
+import static org.gappauth.sdk.TestAuthStates.idToken;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateManagerAccountsTest {
+
+    private Context mContext;
+    private RecordingStore mStore;
+    private AuthStateManager mManager;
+
+    @Before
+    public void setUp() {
+        TestSingletons.resetAuthStateManager();
+        mContext = ApplicationProvider.getApplicationContext();
+        mStore = new RecordingStore();
+        mManager = AuthStateManager.getInstance(mContext, mStore);
+        mManager.replace(stateOf("alice"));
+        mManager.detachActiveAccount();
+        mManager.replace(stateOf("bob"));
+        mStore.writes.clear();
+        mStore.writers.clear();
+    }
+
+    @Test
+    public void switchAccount_parksBeforeWritingTheStateAndUnparksAfter() throws Exception {
+        mManager.switchAccount("alice");
+
+        List<String> writes = mStore.writes;
+        assertTrue(writes.indexOf("+account.bob") < writes.indexOf("+state"));
+        assertTrue(writes.indexOf("+state") < writes.indexOf("-account.alice"));
+        assertStoredState("access-alice");
+        assertNotNull(mStore.read("account.bob"));
+        assertNull(mStore.read("account.alice"));
+        assertEquals("alice", mStore.read("active"));
+    }
+
+    @Test
+    public void switchAccount_writeBehind_leavesTheStoreToTheWriter() throws Exception {
+        mManager.setWriteBehind(true);
+
+        mManager.switchAccount("alice");
+
+        assertFalse("nothing is written on the calling thread",
+                mStore.writers.contains(Thread.currentThread()));
+        mManager.flush();
+        assertStoredState("access-alice");
+        assertNotNull(mStore.read("account.bob"));
+        assertNull(mStore.read("account.alice"));
+        assertEquals("alice", mStore.read("active"));
+    }
+
+    @Test
+    public void switchAccount_backBeforeTheParkedRecordIsWritten_restoresIt() throws Exception {
+        mManager.setWriteBehind(true);
+
+        mManager.switchAccount("alice");
+        mManager.switchAccount("bob");
+        mManager.flush();
+
+        assertEquals("access-bob", mManager.getCurrent().getAccessToken());
+        assertStoredState("access-bob");
+        assertNotNull(mStore.read("account.alice"));
+        assertNull(mStore.read("account.bob"));
+        assertEquals("bob", mStore.read("active"));
+    }
+
+    @Test
+    public void detachActiveAccount_parksItAndClearsTheActiveAccount() throws Exception {
+        mManager.detachActiveAccount();
+
+        assertFalse(mManager.getCurrent().isAuthorized());
+        assertNull(mManager.getActiveAccount());
+        assertNotNull(mStore.read("account.bob"));
+        assertNull(mStore.read("active"));
+        assertEquals(2, mManager.getAccounts().size());
+    }
+
+    @Test
+    public void removeAccount_parked_dropsItsRecordAndIndexEntry() throws Exception {
+        mManager.setWriteBehind(true);
+
+        mManager.removeAccount("alice");
+        mManager.flush();
+
+        assertNull(mStore.read("account.alice"));
+        assertFalse(mStore.read("accounts").contains("alice"));
+        assertEquals("bob", mManager.getActiveAccount());
+    }
+
+    @Test
+    public void getActiveAccount_afterDyingBeforeTheIndexWasWritten_followsTheState()
+            throws Exception {
+        // the state of alice was written, the active account was not
+        mManager.switchAccount("alice");
+        mStore.write("active", "bob");
+        TestSingletons.resetAuthStateManager();
+
+        AuthStateManager restarted = AuthStateManager.getInstance(mContext, mStore);
+
+        assertEquals("alice", restarted.getActiveAccount());
+        assertEquals("access-alice", restarted.getCurrent().getAccessToken());
+    }
+
+    private void assertStoredState(String accessToken) throws Exception {
+        AuthState stored = new AuthStateCodec().read(mStore, "state");
+        assertEquals(accessToken, stored.getAccessToken());
+    }
+
+    private static AuthState stateOf(String subject) {
+        return authorizedState("refresh-" + subject, "access-" + subject,
+                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1), "openid email",
+                idToken(subject));
+    }
+
+    private static final class RecordingStore implements AuthStateStore {
+        final InMemoryAuthStateStore delegate = new InMemoryAuthStateStore();
+        final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+        final List<Thread> writers = Collections.synchronizedList(new ArrayList<>());
+
+        @Nullable
+        @Override
+        public String read(@NonNull String key) {
+            return delegate.read(key);
+        }
+
+        @Override
+        public void write(@NonNull String key, @Nullable String value) {
+            writes.add((value != null ? "+" : "-") + key);
+            writers.add(Thread.currentThread());
+            delegate.write(key, value);
+        }
+    }
+}
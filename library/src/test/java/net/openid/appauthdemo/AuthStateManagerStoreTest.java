@@ -0,0 +1,57 @@
+package net.openid.appauthdemo;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthState;
+
+import org.gappauth.sdk.TestSingletons;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateManagerStoreTest {
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        TestSingletons.resetAuthStateManager();
+        mContext = ApplicationProvider.getApplicationContext();
+    }
+
+    @Test
+    public void getInstance_withoutStore_usesTheStoreChosenEarlier() {
+        InMemoryAuthStateStore store = new InMemoryAuthStateStore();
+        AuthStateManager manager = AuthStateManager.getInstance(mContext, store);
+
+        assertSame(manager, AuthStateManager.getInstance(mContext));
+        AuthStateManager.getInstance(mContext).replace(new AuthState());
+        assertNotNull(store.read("state"));
+    }
+
+    @Test
+    public void getInstance_sameStoreTwice_returnsTheSameManager() {
+        InMemoryAuthStateStore store = new InMemoryAuthStateStore();
+        assertSame(AuthStateManager.getInstance(mContext, store),
+                AuthStateManager.getInstance(mContext, store));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getInstance_differentStore_throws() {
+        AuthStateManager.getInstance(mContext, new InMemoryAuthStateStore());
+        AuthStateManager.getInstance(mContext, new InMemoryAuthStateStore());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getInstance_storeAfterDefault_throws() {
+        AuthStateManager.getInstance(mContext);
+        AuthStateManager.getInstance(mContext, new InMemoryAuthStateStore());
+    }
+}
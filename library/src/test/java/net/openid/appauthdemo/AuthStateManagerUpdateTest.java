@@ -0,0 +1,115 @@
+package net.openid.appauthdemo;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationException.TokenRequestErrors;
+import net.openid.appauth.TokenResponse;
+
+import org.gappauth.sdk.TestSingletons;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.gappauth.sdk.TestAuthStates.stateFor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateManagerUpdateTest {
+
+    private InMemoryAuthStateStore mStore;
+    private AuthStateManager mManager;
+
+    @Before
+    public void setUp() {
+        TestSingletons.resetAuthStateManager();
+        Context context = ApplicationProvider.getApplicationContext();
+        mStore = new InMemoryAuthStateStore();
+        mManager = AuthStateManager.getInstance(context, mStore);
+        mManager.replace(stateFor("https://one.example.com"));
+    }
+
+    @Test
+    public void update_mutatesACopyAndPublishesIt() {
+        AuthState before = mManager.getCurrent();
+        long version = mManager.getVersion();
+
+        AuthState updated = mManager.update(copy -> {
+            assertNotSame(before, copy);
+            copy.setNeedsTokenRefresh(true);
+            return copy;
+        });
+
+        assertSame(updated, mManager.getCurrent());
+        assertEquals(version + 1, mManager.getVersion());
+    }
+
+    @Test
+    public void update_declined_publishesNothing() {
+        AuthState before = mManager.getCurrent();
+        long version = mManager.getVersion();
+
+        assertSame(before, mManager.update(copy -> null));
+        assertSame(before, mManager.getCurrent());
+        assertEquals(version, mManager.getVersion());
+    }
+
+    @Test
+    public void update_racingAnotherUpdate_isAppliedAgainToTheNewerState() {
+        AuthState racing = stateFor("https://two.example.com");
+        int[] attempts = new int[1];
+
+        AuthState updated = mManager.update(copy -> {
+            if (attempts[0]++ == 0) {
+                // another thread publishes between the copy and the compare-and-set
+                mManager.replace(racing);
+            }
+            copy.setNeedsTokenRefresh(true);
+            return copy;
+        });
+
+        assertEquals(2, attempts[0]);
+        assertEquals(Uri.parse("https://two.example.com/token"),
+                updated.getAuthorizationServiceConfiguration().tokenEndpoint);
+        assertSame(updated, mManager.getCurrent());
+    }
+
+    @Test
+    public void update_isPersisted() throws Exception {
+        mManager.update(copy -> stateFor("https://three.example.com"));
+
+        assertTrue(mStore.read("state").contains("three.example.com"));
+    }
+
+    @Test
+    public void getCurrent_supersededSnapshot_isDetachedFromTheManager() {
+        AuthState held = mManager.getCurrent();
+        AuthState updated = mManager.update(copy -> {
+            copy.update((TokenResponse) null, TokenRequestErrors.INVALID_CLIENT);
+            return copy;
+        });
+        long version = mManager.getVersion();
+
+        // the manager never changes a snapshot it handed out
+        assertNull(held.getAuthorizationException());
+
+        // and a change to one it no longer publishes does not reach it
+        held.update((TokenResponse) null, TokenRequestErrors.INVALID_GRANT);
+
+        assertSame(updated, mManager.getCurrent());
+        assertSame(TokenRequestErrors.INVALID_CLIENT,
+                mManager.getCurrent().getAuthorizationException());
+        assertEquals(version, mManager.getVersion());
+        assertFalse(mStore.read("state").contains("invalid_grant"));
+    }
+
+}
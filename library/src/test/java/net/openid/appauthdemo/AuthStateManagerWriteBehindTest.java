@@ -0,0 +1,148 @@
+package net.openid.appauthdemo;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthState;
+
+import org.gappauth.sdk.TestSingletons;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.gappauth.sdk.TestAuthStates.stateFor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AuthStateManagerWriteBehindTest {
+
+    private CountingStore mStore;
+    private AuthStateManager mManager;
+
+    @Before
+    public void setUp() {
+        TestSingletons.resetAuthStateManager();
+        Context context = ApplicationProvider.getApplicationContext();
+        mStore = new CountingStore();
+        mManager = AuthStateManager.getInstance(context, mStore);
+        mManager.setWriteBehind(true);
+    }
+
+    @Test
+    public void replace_publishesBeforeWriting() {
+        AuthState state = stateFor("https://one.example.com");
+        assertEquals(state, mManager.replace(state));
+        assertEquals(state, mManager.getCurrent());
+    }
+
+    @Test
+    public void flush_makesTheLatestStateDurable() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            mManager.replace(stateFor("https://" + i + ".example.com"));
+        }
+
+        mManager.flush();
+
+        assertStored("https://19.example.com");
+    }
+
+    @Test
+    public void replace_duringAWrite_coalescesIntoOneMoreWrite() throws Exception {
+        mStore.blockNextWrite();
+        mManager.replace(stateFor("https://0.example.com"));
+        assertTrue(mStore.writeStarted.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i < 20; i++) {
+            mManager.replace(stateFor("https://" + i + ".example.com"));
+        }
+        mStore.releaseWrite.countDown();
+        mManager.flush();
+
+        assertEquals(2, mStore.stateWrites.get());
+        assertStored("https://19.example.com");
+    }
+
+    @Test
+    public void flush_waitsForAWriteAlreadyTakenByTheWriter() throws Exception {
+        CountDownLatch persisted = new CountDownLatch(1);
+        mManager.setPersistenceListener(new AuthStateManager.PersistenceListener() {
+            @Override
+            public void onPersisted(@NonNull AuthState state) {
+                persisted.countDown();
+            }
+
+            @Override
+            public void onPersistFailed(@NonNull AuthState state, @NonNull Exception e) {
+            }
+        });
+
+        mManager.replace(stateFor("https://latest.example.com"));
+        mManager.flush();
+
+        // whichever thread wrote it, the write is durable once flush() returns
+        assertStored("https://latest.example.com");
+        assertTrue(persisted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void flush_withoutPendingWrite_doesNothing() {
+        mManager.flush();
+        assertNull(mStore.read("state"));
+    }
+
+    private void assertStored(String authEndpoint) throws Exception {
+        AuthState stored = AuthState.jsonDeserialize(mStore.read("state"));
+        assertEquals(Uri.parse(authEndpoint + "/auth"), stored
+                .getAuthorizationServiceConfiguration().authorizationEndpoint);
+    }
+
+    private static final class CountingStore implements AuthStateStore {
+        final InMemoryAuthStateStore delegate = new InMemoryAuthStateStore();
+        final AtomicInteger stateWrites = new AtomicInteger();
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch releaseWrite = new CountDownLatch(1);
+        private volatile boolean mBlockNextWrite;
+
+        void blockNextWrite() {
+            mBlockNextWrite = true;
+        }
+
+        @Nullable
+        @Override
+        public String read(@NonNull String key) {
+            return delegate.read(key);
+        }
+
+        @Override
+        public void write(@NonNull String key, @Nullable String value) {
+            if ("state".equals(key)) {
+                stateWrites.incrementAndGet();
+                if (mBlockNextWrite) {
+                    mBlockNextWrite = false;
+                    writeStarted.countDown();
+                    awaitRelease();
+                }
+            }
+            delegate.write(key, value);
+        }
+
+        private void awaitRelease() {
+            try {
+                releaseWrite.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
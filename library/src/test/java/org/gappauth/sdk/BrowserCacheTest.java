@@ -0,0 +1,152 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.ResolveInfo;
+import android.content.pm.Signature;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.browser.BrowserDescriptor;
+import net.openid.appauth.browser.BrowserMatcher;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class BrowserCacheTest {
+
+    private static final String BROWSER_PACKAGE = "com.example.browser";
+
+    private Context mContext;
+    private BrowserCache mCache;
+    private int mNotifications;
+    private final BrowserCache.OnBrowsersChangedListener mListener = () -> mNotifications++;
+
+    @Before
+    public void setUp() {
+        TestSingletons.reset(BrowserCache.class);
+        mContext = ApplicationProvider.getApplicationContext();
+        mCache = BrowserCache.getInstance(mContext);
+    }
+
+    @Test
+    public void resolveTwice_selectsOnce() {
+        installBrowser();
+        int[] matches = new int[1];
+        BrowserMatcher matcher = descriptor -> {
+            matches[0]++;
+            return true;
+        };
+
+        BrowserDescriptor first = mCache.resolve(matcher);
+        BrowserDescriptor second = mCache.resolve(matcher);
+
+        assertNotNull(first);
+        assertEquals(BROWSER_PACKAGE, first.packageName);
+        assertSame(first, second);
+        assertEquals(1, matches[0]);
+    }
+
+    @Test
+    public void packageChange_dropsCachedBrowser() {
+        installBrowser();
+        BrowserMatcher matcher = descriptor -> true;
+        BrowserDescriptor first = mCache.resolve(matcher);
+
+        changePackage();
+
+        assertNotSame(first, mCache.resolve(matcher));
+    }
+
+    @Test
+    public void packageChangeDuringResolve_doesNotCacheTheResult() {
+        installBrowser();
+        int[] matches = new int[1];
+        BrowserMatcher matcher = descriptor -> {
+            if (matches[0]++ == 0) {
+                // the package manager may already have answered before the change
+                changePackage();
+            }
+            return true;
+        };
+
+        BrowserDescriptor stale = mCache.resolve(matcher);
+        BrowserDescriptor fresh = mCache.resolve(matcher);
+
+        assertNotNull(stale);
+        assertNotSame(stale, fresh);
+        assertEquals(2, matches[0]);
+        assertSame(fresh, mCache.resolve(matcher));
+    }
+
+    @Test
+    public void packageChange_notifiesListener() {
+        mCache.addListener(mListener);
+
+        changePackage();
+
+        assertEquals(1, mNotifications);
+    }
+
+    @Test
+    public void addListenerTwice_notifiesOnce() {
+        mCache.addListener(mListener);
+        mCache.addListener(mListener);
+
+        changePackage();
+
+        assertEquals(1, mNotifications);
+    }
+
+    @Test
+    public void removedListener_isNotNotified() {
+        mCache.addListener(mListener);
+        mCache.removeListener(mListener);
+
+        changePackage();
+
+        assertEquals(0, mNotifications);
+    }
+
+    private void changePackage() {
+        mContext.sendBroadcast(new Intent(Intent.ACTION_PACKAGE_ADDED,
+                Uri.parse("package:" + BROWSER_PACKAGE)));
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    // a full browser as BrowserSelector looks for it: handles http and https, has a signature
+    private void installBrowser() {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = BROWSER_PACKAGE;
+        packageInfo.versionName = "1.0";
+        packageInfo.signatures = new Signature[] {new Signature("0123456789abcdef")};
+        shadowOf(mContext.getPackageManager()).installPackage(packageInfo);
+
+        ResolveInfo resolveInfo = new ResolveInfo();
+        resolveInfo.activityInfo = new ActivityInfo();
+        resolveInfo.activityInfo.packageName = BROWSER_PACKAGE;
+        resolveInfo.activityInfo.name = BROWSER_PACKAGE + ".BrowserActivity";
+        resolveInfo.filter = new IntentFilter(Intent.ACTION_VIEW);
+        resolveInfo.filter.addCategory(Intent.CATEGORY_BROWSABLE);
+        resolveInfo.filter.addDataScheme("http");
+        resolveInfo.filter.addDataScheme("https");
+        shadowOf(mContext.getPackageManager()).addResolveInfoForIntent(
+                new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.example.com"))
+                        .addCategory(Intent.CATEGORY_BROWSABLE),
+                resolveInfo);
+    }
+}
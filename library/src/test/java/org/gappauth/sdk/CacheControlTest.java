@@ -0,0 +1,64 @@
+package org.gappauth.sdk;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheControlTest {
+
+    private static final long DEFAULT_MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+    private static final long NOW = 1_000_000L;
+
+    private final Locale mDefaultLocale = Locale.getDefault();
+
+    @After
+    public void restoreLocale() {
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void parse_missingHeader_usesDefaultMaxAge() {
+        CacheControl cacheControl = CacheControl.parse(null, DEFAULT_MAX_AGE_MS);
+        assertFalse(cacheControl.isNoStore());
+        assertEquals(NOW + DEFAULT_MAX_AGE_MS, cacheControl.expiresAt(NOW));
+    }
+
+    @Test
+    public void parse_maxAge() {
+        CacheControl cacheControl = CacheControl.parse("public, max-age=300", DEFAULT_MAX_AGE_MS);
+        assertEquals(NOW + TimeUnit.SECONDS.toMillis(300), cacheControl.expiresAt(NOW));
+    }
+
+    @Test
+    public void parse_malformedMaxAge_usesDefault() {
+        CacheControl cacheControl = CacheControl.parse("max-age=soon", DEFAULT_MAX_AGE_MS);
+        assertEquals(NOW + DEFAULT_MAX_AGE_MS, cacheControl.expiresAt(NOW));
+    }
+
+    @Test
+    public void parse_noCache_expiresImmediately() {
+        CacheControl cacheControl = CacheControl.parse("no-cache, max-age=300", DEFAULT_MAX_AGE_MS);
+        assertEquals(NOW, cacheControl.expiresAt(NOW));
+    }
+
+    @Test
+    public void parse_noStore() {
+        assertTrue(CacheControl.parse("No-Store", DEFAULT_MAX_AGE_MS).isNoStore());
+    }
+
+    @Test
+    public void parse_isLocaleIndependent() {
+        // in Turkish, "I".toLowerCase() is a dotless i
+        Locale.setDefault(new Locale("tr", "TR"));
+        CacheControl cacheControl = CacheControl.parse("NO-CACHE, MAX-AGE=60", DEFAULT_MAX_AGE_MS);
+        assertEquals(NOW, cacheControl.expiresAt(NOW));
+        assertEquals(NOW + TimeUnit.MINUTES.toMillis(1),
+                CacheControl.parse("MAX-AGE=60", DEFAULT_MAX_AGE_MS).expiresAt(NOW));
+    }
+}
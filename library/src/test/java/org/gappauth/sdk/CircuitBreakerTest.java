@@ -0,0 +1,108 @@
+package org.gappauth.sdk;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CircuitBreakerTest {
+
+    private static int sEndpoints;
+
+    private CircuitBreaker mBreaker;
+
+    @Before
+    public void setUp() {
+        // breakers are process-wide, give every test its own endpoint
+        mBreaker = CircuitBreaker.forEndpoint(
+                Uri.parse("https://breaker" + sEndpoints++ + ".example.com/token"));
+    }
+
+    @Test
+    public void forEndpoint_ignoresQuery() {
+        assertSame(CircuitBreaker.forEndpoint(Uri.parse("https://example.com/keys?a=1")),
+                CircuitBreaker.forEndpoint(Uri.parse("https://example.com/keys?a=2")));
+    }
+
+    @Test
+    public void failuresBelowThreshold_keepCircuitClosed() {
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            mBreaker.onFailure(1000L);
+        }
+        assertTrue(mBreaker.allowRequest(1000L));
+    }
+
+    @Test
+    public void thresholdReached_opensCircuitForOpenDuration() {
+        open(1000L);
+
+        assertFalse(mBreaker.allowRequest(1000L));
+        assertFalse(mBreaker.allowRequest(1000L + CircuitBreaker.OPEN_DURATION_MS - 1));
+    }
+
+    @Test
+    public void halfOpen_letsOneTrialThrough() {
+        open(1000L);
+        long later = 1000L + CircuitBreaker.OPEN_DURATION_MS;
+
+        assertTrue(mBreaker.allowRequest(later));
+        assertFalse(mBreaker.allowRequest(later));
+    }
+
+    @Test
+    public void successfulTrial_closesCircuit() {
+        open(1000L);
+        long later = 1000L + CircuitBreaker.OPEN_DURATION_MS;
+        mBreaker.allowRequest(later);
+
+        mBreaker.onSuccess();
+
+        assertTrue(mBreaker.allowRequest(later));
+        assertTrue(mBreaker.allowRequest(later));
+    }
+
+    @Test
+    public void failedTrial_reopensCircuit() {
+        open(1000L);
+        long later = 1000L + CircuitBreaker.OPEN_DURATION_MS;
+        mBreaker.allowRequest(later);
+
+        mBreaker.onFailure(later);
+
+        assertFalse(mBreaker.allowRequest(later + 1));
+    }
+
+    @Test
+    public void abandonedTrial_letsAnotherTrialThrough() {
+        open(1000L);
+        long later = 1000L + CircuitBreaker.OPEN_DURATION_MS;
+        mBreaker.allowRequest(later);
+
+        mBreaker.onAbandoned();
+
+        assertTrue(mBreaker.allowRequest(later));
+    }
+
+    @Test
+    public void retryBudget_isLimitedPerWindow() {
+        int acquired = 0;
+        while (mBreaker.tryAcquireRetry(1000L)) {
+            acquired++;
+        }
+        assertTrue(acquired > 0);
+        assertFalse(mBreaker.tryAcquireRetry(1000L + 1));
+    }
+
+    private void open(long now) {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            mBreaker.onFailure(now);
+        }
+    }
+}
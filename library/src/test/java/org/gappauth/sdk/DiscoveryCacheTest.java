@@ -0,0 +1,252 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiscoveryCacheTest {
+
+    static final Uri DISCOVERY_URI =
+            Uri.parse("https://accounts.example.com/.well-known/openid-configuration");
+    static final String DISCOVERY_DOC = "{"
+            + "\"issuer\":\"https://accounts.example.com\","
+            + "\"authorization_endpoint\":\"https://accounts.example.com/auth\","
+            + "\"token_endpoint\":\"https://accounts.example.com/token\","
+            + "\"jwks_uri\":\"https://accounts.example.com/certs\","
+            + "\"response_types_supported\":[\"code\"],"
+            + "\"subject_types_supported\":[\"public\"],"
+            + "\"id_token_signing_alg_values_supported\":[\"RS256\"]"
+            + "}";
+
+    private SharedPreferences mPrefs;
+    private DiscoveryCache mCache;
+    private FakeConnectionBuilder mConnections;
+    // background work is queued here and run by the test, so that it can look in between
+    private final List<Runnable> mTasks = new ArrayList<>();
+    private final Executor mExecutor = mTasks::add;
+
+    @Before
+    public void setUp() {
+        TestSingletons.reset(DiscoveryCache.class);
+        Context context = ApplicationProvider.getApplicationContext();
+        mPrefs = context.getSharedPreferences("discovery", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mCache = DiscoveryCache.getInstance(context);
+        mConnections = new FakeConnectionBuilder();
+    }
+
+    @Test
+    public void fetch_nothingCached_fetchesOnceAndCaches() {
+        mConnections.respond(HttpURLConnection.HTTP_OK, DISCOVERY_DOC,
+                "ETag", "\"v1\"", "Cache-Control", "max-age=3600");
+
+        Result first = fetch();
+        runTasks();
+
+        assertNotNull(first.config);
+        assertEquals("https://accounts.example.com/token",
+                first.config.tokenEndpoint.toString());
+        assertNull(mConnections.connections.get(0).getRequestProperty("If-None-Match"));
+
+        Result second = fetch();
+
+        // served on the calling thread, without a request
+        assertSame(first.config, second.config);
+        assertTrue(mTasks.isEmpty());
+        assertEquals(1, mConnections.connections.size());
+    }
+
+    @Test
+    public void fetch_staleEntry_servesItAndRevalidatesInTheBackground() throws Exception {
+        seed("\"v1\"", System.currentTimeMillis() - 1);
+        mConnections.respond(HttpURLConnection.HTTP_NOT_MODIFIED, null,
+                "Cache-Control", "max-age=3600");
+
+        Result result = fetch();
+
+        // delivered before the revalidation has even started
+        assertNotNull(result.config);
+        assertTrue(mConnections.connections.isEmpty());
+        assertEquals(1, mTasks.size());
+
+        runTasks();
+
+        assertEquals("\"v1\"",
+                mConnections.connections.get(0).getRequestProperty("If-None-Match"));
+        assertTrue(storedExpiresAt() > System.currentTimeMillis()
+                + TimeUnit.MINUTES.toMillis(59));
+        // fresh again, so the next caller triggers no revalidation
+        fetch();
+        assertTrue(mTasks.isEmpty());
+    }
+
+    @Test
+    public void fetch_staleEntry_replacedByTheChangedDocument() throws Exception {
+        seed("\"v1\"", System.currentTimeMillis() - 1);
+        mConnections.respond(HttpURLConnection.HTTP_OK, DISCOVERY_DOC,
+                "ETag", "\"v2\"", "Cache-Control", "max-age=3600");
+
+        fetch();
+        runTasks();
+
+        Result result = fetch();
+        assertNotNull(result.config.discoveryDoc);
+        assertEquals("\"v2\"", new JSONObject(mPrefs.getString(DISCOVERY_URI.toString(), null))
+                .getString("etag"));
+    }
+
+    @Test
+    public void fetch_requestFails_deliversTheErrorAndCachesNothing() {
+        mConnections.respond(HttpURLConnection.HTTP_NOT_FOUND, null);
+
+        Result result = fetch();
+        runTasks();
+
+        assertNull(result.config);
+        assertNotNull(result.error);
+        assertEquals(AuthorizationException.GeneralErrors.NETWORK_ERROR.code, result.error.code);
+        assertNull(mPrefs.getString(DISCOVERY_URI.toString(), null));
+
+        // the next caller tries again
+        mConnections.respond(HttpURLConnection.HTTP_OK, DISCOVERY_DOC);
+        Result retried = fetch();
+        runTasks();
+        assertNotNull(retried.config);
+    }
+
+    @Test
+    public void fetch_revalidationFails_keepsServingTheStaleEntry() throws Exception {
+        seed("\"v1\"", System.currentTimeMillis() - 1);
+        mConnections.respond(HttpURLConnection.HTTP_NOT_FOUND, null);
+
+        fetch();
+        runTasks();
+
+        assertNotNull(fetch().config);
+        assertEquals("\"v1\"", new JSONObject(mPrefs.getString(DISCOVERY_URI.toString(), null))
+                .getString("etag"));
+    }
+
+    @Test
+    public void fetch_concurrentCallers_shareOneRequest() throws Exception {
+        int callers = 8;
+        mConnections.hold();
+        mConnections.respond(HttpURLConnection.HTTP_OK, DISCOVERY_DOC);
+        ExecutorService fetchExecutor = Dispatcher.newSerialExecutor();
+        List<Result> results = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch joined = new CountDownLatch(callers);
+
+        for (int i = 0; i < callers; i++) {
+            Result result = new Result();
+            results.add(result);
+            new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mCache.fetch(DISCOVERY_URI, result, mConnections, fetchExecutor);
+                joined.countDown();
+            }).start();
+        }
+        start.countDown();
+        // every caller has joined while the one request is held
+        assertTrue(joined.await(5, TimeUnit.SECONDS));
+        mConnections.release();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!allCompleted(results) && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        fetchExecutor.shutdown();
+
+        assertEquals(1, mConnections.connections.size());
+        for (Result result : results) {
+            assertEquals(1, result.calls);
+            assertNull(result.error);
+            assertSame(results.get(0).config, result.config);
+        }
+        assertNotNull(results.get(0).config);
+    }
+
+    private static boolean allCompleted(List<Result> results) {
+        for (Result result : results) {
+            if (result.calls == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Result fetch() {
+        Result result = new Result();
+        mCache.fetch(DISCOVERY_URI, result, mConnections, mExecutor);
+        return result;
+    }
+
+    private void runTasks() {
+        while (!mTasks.isEmpty()) {
+            mTasks.remove(0).run();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private void seed(String etag, long expiresAt) throws Exception {
+        JSONObject entry = new JSONObject()
+                .put("config", TestAuthStates.CONFIG.toJson())
+                .put("etag", etag)
+                .put("expires_at", expiresAt);
+        mPrefs.edit().putString(DISCOVERY_URI.toString(), entry.toString()).commit();
+    }
+
+    private long storedExpiresAt() throws Exception {
+        return new JSONObject(mPrefs.getString(DISCOVERY_URI.toString(), null))
+                .getLong("expires_at");
+    }
+
+    static final class Result
+            implements AuthorizationServiceConfiguration.RetrieveConfigurationCallback {
+        AuthorizationServiceConfiguration config;
+        AuthorizationException error;
+        int calls;
+
+        @Override
+        public void onFetchConfigurationCompleted(
+                AuthorizationServiceConfiguration serviceConfiguration,
+                AuthorizationException ex) {
+            config = serviceConfiguration;
+            error = ex;
+            calls++;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.gappauth.sdk;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DispatcherTest {
+
+    @Test
+    public void serialExecutor_runsTasksInOrderOneAtATime() throws Exception {
+        ExecutorService executor = Dispatcher.newSerialExecutor();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        int[] running = new int[1];
+        boolean[] overlapped = new boolean[1];
+
+        for (int i = 0; i < 5; i++) {
+            int task = i;
+            executor.execute(() -> {
+                synchronized (running) {
+                    overlapped[0] |= ++running[0] > 1;
+                }
+                order.add(task);
+                synchronized (running) {
+                    running[0]--;
+                }
+            });
+        }
+        executor.shutdown();
+
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+        assertFalse(overlapped[0]);
+    }
+
+    @Test
+    public void serialExecutor_shutdownNow_dropsQueuedTasks() throws Exception {
+        ExecutorService executor = Dispatcher.newSerialExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        executor.execute(() -> ran.add("queued"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Runnable> dropped = executor.shutdownNow();
+
+        assertEquals(1, dropped.size());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(ran.isEmpty());
+    }
+
+    @Test
+    public void defaultExecutor_isShared() {
+        assertSame(Dispatcher.getDefault(), Dispatcher.getDefault());
+    }
+}
@@ -0,0 +1,79 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.browser.customtabs.CustomTabsIntent;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationService;
+import net.openid.appauth.ClientAuthentication;
+import net.openid.appauth.TokenRequest;
+import net.openid.appauth.TokenResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link AuthorizationService} whose token requests never reach the network: they are
+ * recorded, and answered by the test through {@link #respond} or {@link #fail}.
+ */
+public final class FakeAuthorizationService extends AuthorizationService {
+
+    public final List<TokenRequest> requests = new ArrayList<>();
+    public final List<TokenResponseCallback> callbacks = new ArrayList<>();
+    // each build may wait for the Custom Tabs service connection
+    public int customTabsIntentBuilds;
+    public volatile boolean disposed;
+
+    public FakeAuthorizationService(Context context) {
+        super(context);
+    }
+
+    @Override
+    public void dispose() {
+        disposed = true;
+        super.dispose();
+    }
+
+    @NonNull
+    @Override
+    public CustomTabsIntent.Builder createCustomTabsIntentBuilder(Uri... possibleUris) {
+        customTabsIntentBuilds++;
+        return super.createCustomTabsIntentBuilder(possibleUris);
+    }
+
+    @Override
+    public void performTokenRequest(
+            @NonNull TokenRequest request,
+            @NonNull ClientAuthentication clientAuthentication,
+            @NonNull TokenResponseCallback callback) {
+        requests.add(request);
+        callbacks.add(callback);
+    }
+
+    /**
+     * Answers the request with a bearer token valid for an hour.
+     */
+    public void respond(int index, String accessToken) {
+        respond(index, accessToken, null);
+    }
+
+    public void respond(int index, String accessToken, String idToken) {
+        callbacks.get(index).onTokenRequestCompleted(
+                new TokenResponse.Builder(requests.get(index))
+                        .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                        .setAccessToken(accessToken)
+                        .setAccessTokenExpirationTime(
+                                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+                        .setIdToken(idToken)
+                        .build(),
+                null);
+    }
+
+    public void fail(int index, AuthorizationException error) {
+        callbacks.get(index).onTokenRequestCompleted(null, error);
+    }
+}
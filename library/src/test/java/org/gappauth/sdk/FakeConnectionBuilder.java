@@ -0,0 +1,151 @@
+package org.gappauth.sdk;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers requests with queued responses instead of going to the network, and records the
+ * connections it opened. Requests beyond the queued responses fail the test.
+ */
+public final class FakeConnectionBuilder implements ConnectionBuilder {
+
+    public final List<FakeConnection> connections = new CopyOnWriteArrayList<>();
+
+    private final Queue<Response> mResponses = new ArrayDeque<>();
+    @Nullable
+    private CountDownLatch mGate;
+
+    /**
+     * Queues a response, given its status code, body and header name and value pairs.
+     */
+    @NonNull
+    public synchronized FakeConnectionBuilder respond(int code, @Nullable String body,
+                                                     String... headers) {
+        Map<String, String> headerFields = new HashMap<>();
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            headerFields.put(headers[i], headers[i + 1]);
+        }
+        mResponses.add(new Response(code, body, headerFields));
+        return this;
+    }
+
+    /**
+     * Holds every request in `connect()` until {@link #release()} is called.
+     */
+    public synchronized void hold() {
+        mGate = new CountDownLatch(1);
+    }
+
+    public synchronized void release() {
+        if (mGate != null) {
+            mGate.countDown();
+        }
+    }
+
+    @NonNull
+    @Override
+    public synchronized HttpURLConnection openConnection(@NonNull Uri uri) throws IOException {
+        Response response = mResponses.poll();
+        if (response == null) {
+            throw new AssertionError("Unexpected request to " + uri);
+        }
+        FakeConnection connection = new FakeConnection(new URL(uri.toString()), response, mGate);
+        connections.add(connection);
+        return connection;
+    }
+
+    private static final class Response {
+        final int code;
+        @Nullable
+        final String body;
+        final Map<String, String> headers;
+
+        Response(int code, @Nullable String body, Map<String, String> headers) {
+            this.code = code;
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+
+    public static final class FakeConnection extends HttpURLConnection {
+        private final Response mResponse;
+        @Nullable
+        private final CountDownLatch mGate;
+        private final Map<String, String> mRequestProperties = new HashMap<>();
+
+        FakeConnection(URL url, Response response, @Nullable CountDownLatch gate) {
+            super(url);
+            mResponse = response;
+            mGate = gate;
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            mRequestProperties.put(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(String key) {
+            return mRequestProperties.get(key);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (mGate == null) {
+                return;
+            }
+            try {
+                if (!mGate.await(5, TimeUnit.SECONDS)) {
+                    throw new AssertionError("Request was never released");
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public int getResponseCode() {
+            return mResponse.code;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mResponse.headers.get(name);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            String body = mResponse.body != null ? mResponse.body : "";
+            return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
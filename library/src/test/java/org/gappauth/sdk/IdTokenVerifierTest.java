@@ -0,0 +1,144 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.util.Base64;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class IdTokenVerifierTest {
+
+    private static final String CLIENT_ID = "client.apps.googleusercontent.com";
+    private static final String KID = "test-key";
+    private static final int FLAGS = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
+    // the key is seeded into the on-disk key set, so nothing may be fetched
+    private static final ConnectionBuilder NO_NETWORK = uri -> {
+        throw new AssertionError("Unexpected request to " + uri);
+    };
+
+    private KeyPair mKeyPair;
+    private IdTokenVerifier mVerifier;
+
+    @Before
+    public void setUp() throws Exception {
+        TestSingletons.reset(IdTokenVerifier.class);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        mKeyPair = generator.generateKeyPair();
+
+        RSAPublicKey publicKey = (RSAPublicKey) mKeyPair.getPublic();
+        JSONObject jwk = new JSONObject()
+                .put("kty", "RSA")
+                .put("kid", KID)
+                .put("n", encode(publicKey.getModulus()))
+                .put("e", encode(publicKey.getPublicExponent()));
+        Context context = ApplicationProvider.getApplicationContext();
+        context.getSharedPreferences("jwks", Context.MODE_PRIVATE).edit()
+                .putString("kid." + KID, jwk.toString())
+                .putLong("expires_at", System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1))
+                .commit();
+        mVerifier = IdTokenVerifier.getInstance(context);
+    }
+
+    @Test
+    public void verify_validToken_returnsClaims() throws Exception {
+        JSONObject claims = mVerifier.verify(sign(claims()), CLIENT_ID, "nonce", null, NO_NETWORK);
+
+        assertEquals("alice", claims.getString("sub"));
+    }
+
+    @Test
+    public void verify_missingToken_fails() throws Exception {
+        assertInvalid(null, "nonce");
+    }
+
+    @Test
+    public void verify_tamperedSignature_fails() throws Exception {
+        String token = sign(claims());
+        String tampered = token.substring(0, token.lastIndexOf('.') + 1)
+                + encode("not the signature".getBytes(StandardCharsets.UTF_8));
+
+        assertInvalid(tampered, "nonce");
+    }
+
+    @Test
+    public void verify_otherAudience_fails() throws Exception {
+        assertInvalid(sign(claims().put("aud", "other-client")), "nonce");
+    }
+
+    @Test
+    public void verify_expiredToken_fails() throws Exception {
+        long expiredAt = TimeUnit.MILLISECONDS.toSeconds(
+                System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+
+        assertInvalid(sign(claims().put("exp", expiredAt)), "nonce");
+    }
+
+    @Test
+    public void verify_otherNonce_fails() throws Exception {
+        assertInvalid(sign(claims()), "other-nonce");
+    }
+
+    private void assertInvalid(String idToken, String nonce) throws Exception {
+        try {
+            mVerifier.verify(idToken, CLIENT_ID, nonce, null, NO_NETWORK);
+            fail("Expected InvalidIdTokenException");
+        } catch (IdTokenVerifier.InvalidIdTokenException expected) {
+            // expected
+        }
+    }
+
+    private static JSONObject claims() throws Exception {
+        return new JSONObject()
+                .put("iss", "https://accounts.google.com")
+                .put("aud", CLIENT_ID)
+                .put("sub", "alice")
+                .put("nonce", "nonce")
+                .put("exp", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600);
+    }
+
+    private String sign(JSONObject claims) throws Exception {
+        JSONObject header = new JSONObject().put("alg", "RS256").put("kid", KID);
+        String signingInput = encode(header.toString().getBytes(StandardCharsets.UTF_8))
+                + "." + encode(claims.toString().getBytes(StandardCharsets.UTF_8));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(mKeyPair.getPrivate());
+        signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+        return signingInput + "." + encode(signature.sign());
+    }
+
+    private static String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        // JWK integers are unsigned, drop the sign byte
+        if (bytes.length > 1 && bytes[0] == 0) {
+            byte[] unsigned = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+            bytes = unsigned;
+        }
+        return encode(bytes);
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.encodeToString(bytes, FLAGS);
+    }
+}
@@ -0,0 +1,191 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauthdemo.AuthStateManager;
+import net.openid.appauthdemo.InMemoryAuthStateStore;
+
+import org.gappauth.sdk.entity.GSignInEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class MetricsTest {
+
+    private Context mContext;
+    private final List<GSignInEvent> mEvents = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        TestSingletons.reset(DiscoveryCache.class);
+        TestSingletons.reset(TokenRefreshCoordinator.class);
+        TestSingletons.resetAuthStateManager();
+        mContext = ApplicationProvider.getApplicationContext();
+        mContext.getSharedPreferences("discovery", Context.MODE_PRIVATE).edit().clear().commit();
+        Metrics.setListener(mEvents::add);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setListener(null);
+    }
+
+    @Test
+    public void sample_success_reportsOneEvent() {
+        Metrics.begin(GSignInEvent.Phase.USERINFO).setBytes(42).success();
+
+        assertEquals(1, mEvents.size());
+        GSignInEvent event = mEvents.get(0);
+        assertEquals(GSignInEvent.Phase.USERINFO, event.getPhase());
+        assertEquals(GSignInEvent.Outcome.SUCCESS, event.getOutcome());
+        assertEquals(42, event.getBytes());
+        assertNull(event.getError());
+    }
+
+    @Test
+    public void sample_failure_reportsTheError() {
+        Exception error = new Exception("failed");
+
+        Metrics.begin(GSignInEvent.Phase.USERINFO).failure(error);
+
+        assertEquals(1, mEvents.size());
+        assertEquals(GSignInEvent.Outcome.FAILURE, mEvents.get(0).getOutcome());
+        assertSame(error, mEvents.get(0).getError());
+    }
+
+    @Test
+    public void count_addsTheBytesRead() throws Exception {
+        Metrics.Sample sample = Metrics.begin(GSignInEvent.Phase.USERINFO);
+        try (BufferedSource source = Okio.buffer(sample.count(
+                new Buffer().writeString("twelve bytes", StandardCharsets.UTF_8)))) {
+            source.readUtf8();
+        }
+        sample.success();
+
+        assertEquals(12, mEvents.get(0).getBytes());
+    }
+
+    @Test
+    public void discovery_fromTheNetwork_reportsOneEventWithTheBodySize() {
+        FakeConnectionBuilder connections = new FakeConnectionBuilder()
+                .respond(HttpURLConnection.HTTP_OK, DiscoveryCacheTest.DISCOVERY_DOC);
+
+        fetchDiscovery(connections);
+
+        List<GSignInEvent> events = eventsOf(GSignInEvent.Phase.DISCOVERY);
+        assertEquals(1, events.size());
+        assertEquals(GSignInEvent.Outcome.SUCCESS, events.get(0).getOutcome());
+        assertFalse(events.get(0).isCacheHit());
+        assertEquals(DiscoveryCacheTest.DISCOVERY_DOC.length(), events.get(0).getBytes());
+    }
+
+    @Test
+    public void discovery_fromTheCache_reportsACacheHit() {
+        FakeConnectionBuilder connections = new FakeConnectionBuilder()
+                .respond(HttpURLConnection.HTTP_OK, DiscoveryCacheTest.DISCOVERY_DOC);
+        fetchDiscovery(connections);
+        mEvents.clear();
+
+        fetchDiscovery(connections);
+
+        List<GSignInEvent> events = eventsOf(GSignInEvent.Phase.DISCOVERY);
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).isCacheHit());
+        assertEquals(GSignInEvent.UNKNOWN_BYTES, events.get(0).getBytes());
+    }
+
+    @Test
+    public void discovery_failed_reportsAFailure() {
+        fetchDiscovery(new FakeConnectionBuilder()
+                .respond(HttpURLConnection.HTTP_NOT_FOUND, null));
+
+        List<GSignInEvent> events = eventsOf(GSignInEvent.Phase.DISCOVERY);
+        assertEquals(1, events.size());
+        assertEquals(GSignInEvent.Outcome.FAILURE, events.get(0).getOutcome());
+    }
+
+    @Test
+    public void tokenRefresh_reportsOneEventPerRefresh() {
+        AuthStateManager manager =
+                AuthStateManager.getInstance(mContext, new InMemoryAuthStateStore());
+        manager.replace(TestAuthStates.authorizedState(
+                "refresh", "access", System.currentTimeMillis() - 1000));
+        FakeAuthorizationService service = new FakeAuthorizationService(mContext);
+
+        TokenRefreshCoordinator.getInstance(mContext).refresh(service, (a, i, ex) -> { });
+        service.fail(0, AuthorizationException.TokenRequestErrors.INVALID_GRANT);
+
+        List<GSignInEvent> events = eventsOf(GSignInEvent.Phase.TOKEN_REFRESH);
+        assertEquals(1, events.size());
+        assertEquals(GSignInEvent.Outcome.FAILURE, events.get(0).getOutcome());
+        assertSame(AuthorizationException.TokenRequestErrors.INVALID_GRANT,
+                events.get(0).getError());
+    }
+
+    @Test
+    public void noListener_reportsNothing() throws Exception {
+        Metrics.setListener(null);
+        Metrics.Sample sample = Metrics.begin(GSignInEvent.Phase.USERINFO);
+        Source source = new Buffer();
+
+        // a listener registered mid-phase does not see it either
+        Metrics.setListener(mEvents::add);
+        sample.setBytes(42).success();
+
+        assertSame(Metrics.Sample.NONE, sample);
+        assertSame(source, sample.count(source));
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test
+    public void noListener_discoveryReportsNothing() {
+        Metrics.setListener(null);
+
+        fetchDiscovery(new FakeConnectionBuilder()
+                .respond(HttpURLConnection.HTTP_OK, DiscoveryCacheTest.DISCOVERY_DOC));
+
+        assertTrue(mEvents.isEmpty());
+    }
+
+    private void fetchDiscovery(FakeConnectionBuilder connections) {
+        Uri discoveryUri = DiscoveryCacheTest.DISCOVERY_URI;
+        DiscoveryCache.getInstance(mContext).fetch(discoveryUri,
+                (configuration, ex) -> { }, connections, Runnable::run);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private List<GSignInEvent> eventsOf(GSignInEvent.Phase phase) {
+        List<GSignInEvent> events = new ArrayList<>();
+        for (GSignInEvent event : mEvents) {
+            if (event.getPhase() == phase) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
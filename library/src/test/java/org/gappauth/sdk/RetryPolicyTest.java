@@ -0,0 +1,154 @@
+package org.gappauth.sdk;
+
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.GrantTypeValues;
+import net.openid.appauth.NoClientAuthentication;
+import net.openid.appauth.TokenRequest;
+import net.openid.appauth.TokenResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class RetryPolicyTest {
+
+    private static int sEndpoints;
+
+    // no backoff, so that retries run without waiting
+    private final RetryPolicy mPolicy = new RetryPolicy(3, 0L, 0L);
+
+    private Uri mEndpoint;
+    private FakeAuthorizationService mService;
+    private final List<AuthorizationException> mErrors = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        // breakers are process-wide, give every test its own endpoint
+        mEndpoint = Uri.parse("https://retry" + sEndpoints++ + ".example.com/token");
+        mService = new FakeAuthorizationService(ApplicationProvider.getApplicationContext());
+    }
+
+    @Test
+    public void execute_transientFailure_isRetried() throws Exception {
+        int[] attempts = new int[1];
+        String result = mPolicy.execute(mEndpoint, () -> {
+            if (++attempts[0] < 3) {
+                throw new IOException("connection reset");
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, attempts[0]);
+    }
+
+    @Test
+    public void execute_clientError_isNotRetried() throws Exception {
+        int[] attempts = new int[1];
+        try {
+            mPolicy.execute(mEndpoint, () -> {
+                attempts[0]++;
+                throw new HttpStatusException(400, "bad request");
+            });
+            fail("Expected HttpStatusException");
+        } catch (HttpStatusException expected) {
+            assertEquals(1, attempts[0]);
+        }
+    }
+
+    @Test
+    public void execute_uncheckedFailure_releasesHalfOpenTrial() throws Exception {
+        CircuitBreaker breaker = CircuitBreaker.forEndpoint(mEndpoint);
+        long openedAt = System.currentTimeMillis() - CircuitBreaker.OPEN_DURATION_MS - 1;
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onFailure(openedAt);
+        }
+
+        try {
+            mPolicy.execute(mEndpoint, () -> {
+                throw new IllegalArgumentException("bug in the call");
+            });
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        assertTrue(breaker.allowRequest(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void performTokenRequest_codeExchangeNetworkError_isNotRetried() {
+        TokenRequest request = tokenRequest(GrantTypeValues.AUTHORIZATION_CODE);
+
+        mPolicy.performTokenRequest(mService, request, NoClientAuthentication.INSTANCE,
+                this::record);
+        mService.fail(0, AuthorizationException.GeneralErrors.NETWORK_ERROR);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(1, mService.callbacks.size());
+        assertEquals(1, mErrors.size());
+    }
+
+    @Test
+    public void performTokenRequest_refreshNetworkError_isRetried() {
+        TokenRequest request = tokenRequest(GrantTypeValues.REFRESH_TOKEN);
+
+        mPolicy.performTokenRequest(mService, request, NoClientAuthentication.INSTANCE,
+                this::record);
+        mService.fail(0, AuthorizationException.GeneralErrors.NETWORK_ERROR);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(2, mService.callbacks.size());
+        assertTrue(mErrors.isEmpty());
+    }
+
+    @Test
+    public void performTokenRequest_refreshRejected_isNotRetried() {
+        TokenRequest request = tokenRequest(GrantTypeValues.REFRESH_TOKEN);
+
+        mPolicy.performTokenRequest(mService, request, NoClientAuthentication.INSTANCE,
+                this::record);
+        mService.fail(0, AuthorizationException.TokenRequestErrors.INVALID_GRANT);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(1, mService.callbacks.size());
+        assertEquals(1, mErrors.size());
+    }
+
+    private void record(TokenResponse response, AuthorizationException ex) {
+        if (ex != null) {
+            mErrors.add(ex);
+        }
+    }
+
+    private TokenRequest tokenRequest(String grantType) {
+        AuthorizationServiceConfiguration configuration = new AuthorizationServiceConfiguration(
+                Uri.parse("https://accounts.example.com/auth"), mEndpoint);
+        TokenRequest.Builder builder = new TokenRequest.Builder(configuration, "client")
+                .setGrantType(grantType);
+        if (GrantTypeValues.REFRESH_TOKEN.equals(grantType)) {
+            builder.setRefreshToken("refresh");
+        } else {
+            builder.setAuthorizationCode("code")
+                    .setRedirectUri(Uri.parse("com.example:/oauth"));
+        }
+        return builder.build();
+    }
+}
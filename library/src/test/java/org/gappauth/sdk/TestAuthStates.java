@@ -0,0 +1,101 @@
+package org.gappauth.sdk;
+
+import android.net.Uri;
+import android.util.Base64;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationRequest;
+import net.openid.appauth.AuthorizationResponse;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.ResponseTypeValues;
+import net.openid.appauth.TokenResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Auth states for tests, built through AppAuth's own request and response builders.
+ */
+public final class TestAuthStates {
+
+    public static final AuthorizationServiceConfiguration CONFIG =
+            new AuthorizationServiceConfiguration(
+                    Uri.parse("https://accounts.example.com/auth"),
+                    Uri.parse("https://accounts.example.com/token"));
+
+    public static final Uri REDIRECT_URI = Uri.parse("com.example:/oauth");
+
+    private TestAuthStates() {
+    }
+
+    /**
+     * Returns an unauthorized state whose endpoints are `base/auth` and `base/token`, so that
+     * states can be told apart by their configuration.
+     */
+    public static AuthState stateFor(String base) {
+        return new AuthState(new AuthorizationServiceConfiguration(
+                Uri.parse(base + "/auth"), Uri.parse(base + "/token")));
+    }
+
+    /**
+     * Returns a state as it looks after a code exchange with {@link #CONFIG}.
+     */
+    public static AuthState authorizedState(String refreshToken, String accessToken,
+                                            long accessTokenExpiresAt) {
+        return authorizedState(refreshToken, accessToken, accessTokenExpiresAt, null);
+    }
+
+    public static AuthState authorizedState(String refreshToken, String accessToken,
+                                            long accessTokenExpiresAt, String scope) {
+        return authorizedState(refreshToken, accessToken, accessTokenExpiresAt, scope, null);
+    }
+
+    public static AuthState authorizedState(String refreshToken, String accessToken,
+                                            long accessTokenExpiresAt, String scope,
+                                            String idToken) {
+        AuthorizationRequest request = new AuthorizationRequest.Builder(
+                CONFIG, "client", ResponseTypeValues.CODE, REDIRECT_URI)
+                .setScope(scope)
+                .build();
+        AuthorizationResponse response = new AuthorizationResponse.Builder(request)
+                .setAuthorizationCode("code")
+                .build();
+        AuthState state = new AuthState(response, null);
+        state.update(new TokenResponse.Builder(response.createTokenExchangeRequest())
+                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                .setAccessToken(accessToken)
+                .setRefreshToken(refreshToken)
+                .setAccessTokenExpirationTime(accessTokenExpiresAt)
+                .setScope(scope)
+                .setIdToken(idToken)
+                .build(), null);
+        return state;
+    }
+
+    /**
+     * Returns an unsigned ID token for the given subject, valid for an hour.
+     */
+    public static String idToken(String subject) {
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        try {
+            JSONObject claims = new JSONObject()
+                    .put("iss", "https://accounts.google.com")
+                    .put("aud", "client")
+                    .put("sub", subject)
+                    .put("email", subject + "@example.com")
+                    .put("iat", now)
+                    .put("exp", now + 3600);
+            return encode(new JSONObject().put("alg", "none")) + "." + encode(claims) + ".c2ln";
+        } catch (JSONException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static String encode(JSONObject segment) {
+        return Base64.encodeToString(segment.toString().getBytes(StandardCharsets.UTF_8),
+                Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+    }
+}
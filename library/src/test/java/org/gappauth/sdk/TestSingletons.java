@@ -0,0 +1,47 @@
+package org.gappauth.sdk;
+
+import net.openid.appauthdemo.AuthStateManager;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Robolectric creates a new application for every test, while the SDK's process-wide
+ * singletons survive in static fields; tests drop them so that they bind to the new one.
+ */
+public final class TestSingletons {
+
+    private TestSingletons() {
+    }
+
+    public static void reset(Class<?> singletonClass) {
+        try {
+            Field instance = singletonClass.getDeclaredField("sInstance");
+            instance.setAccessible(true);
+            // some singletons are only weakly held, and never null
+            instance.set(null, instance.getType() == WeakReference.class
+                    ? new WeakReference<>(null) : null);
+        } catch (ReflectiveOperationException ex) {
+            throw new AssertionError("No sInstance field in " + singletonClass, ex);
+        }
+    }
+
+    /**
+     * Drops the {@link AuthStateManager} together with its process-wide store.
+     */
+    @SuppressWarnings("unchecked")
+    public static void resetAuthStateManager() {
+        try {
+            Field instanceRef = AuthStateManager.class.getDeclaredField("INSTANCE_REF");
+            instanceRef.setAccessible(true);
+            ((AtomicReference<WeakReference<AuthStateManager>>) instanceRef.get(null))
+                    .set(new WeakReference<>(null));
+            Field store = AuthStateManager.class.getDeclaredField("sStore");
+            store.setAccessible(true);
+            store.set(null, null);
+        } catch (ReflectiveOperationException ex) {
+            throw new AssertionError("Cannot reset AuthStateManager", ex);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauthdemo.AuthStateManager;
+import net.openid.appauthdemo.InMemoryAuthStateStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class TokenRefreshCoordinatorTest {
+
+    private Context mContext;
+    private AuthStateManager mManager;
+    private FakeAuthorizationService mService;
+    private TokenRefreshCoordinator mCoordinator;
+    private final List<String> mAccessTokens = new ArrayList<>();
+    private final List<AuthorizationException> mErrors = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        TestSingletons.resetAuthStateManager();
+        TestSingletons.reset(TokenRefreshCoordinator.class);
+        mContext = ApplicationProvider.getApplicationContext();
+        mManager = AuthStateManager.getInstance(mContext, new InMemoryAuthStateStore());
+        mManager.replace(expiredState("refresh-a", "access-a"));
+        mService = new FakeAuthorizationService(mContext);
+        mCoordinator = TokenRefreshCoordinator.getInstance(mContext);
+    }
+
+    @Test
+    public void refresh_concurrentCallers_shareOneRequest() {
+        mCoordinator.refresh(mService, this::record);
+        mCoordinator.refresh(mService, this::record);
+        assertEquals(1, mService.requests.size());
+
+        mService.respond(0, "access-b");
+
+        assertEquals(2, mAccessTokens.size());
+        assertEquals("access-b", mAccessTokens.get(0));
+        assertEquals("access-b", mAccessTokens.get(1));
+        assertEquals("access-b", mManager.getCurrent().getAccessToken());
+    }
+
+    @Test
+    public void refresh_afterCompletion_startsANewRequest() {
+        mCoordinator.refresh(mService, this::record);
+        mService.respond(0, "access-b");
+        mCoordinator.refresh(mService, this::record);
+        assertEquals(2, mService.requests.size());
+    }
+
+    @Test
+    public void refresh_finishingAfterSignOut_doesNotRestoreTheSession() {
+        mCoordinator.refresh(mService, this::record);
+        mManager.replace(new AuthState(TestAuthStates.CONFIG));
+
+        mService.respond(0, "access-b");
+
+        assertNull(mManager.getCurrent().getAccessToken());
+        assertEquals(1, mErrors.size());
+        assertEquals(AuthorizationException.GeneralErrors.PROGRAM_CANCELED_AUTH_FLOW.code,
+                mErrors.get(0).code);
+    }
+
+    @Test
+    public void refresh_finishingAfterAccountSwitch_keepsTheOtherAccountsTokens() {
+        mCoordinator.refresh(mService, this::record);
+        mManager.replace(expiredState("refresh-b", "access-other"));
+
+        mService.respond(0, "access-b");
+
+        assertEquals("access-other", mManager.getCurrent().getAccessToken());
+        assertEquals("refresh-b", mManager.getCurrent().getRefreshToken());
+        assertEquals(1, mErrors.size());
+    }
+
+    private static AuthState expiredState(String refreshToken, String accessToken) {
+        return TestAuthStates.authorizedState(refreshToken, accessToken,
+                System.currentTimeMillis() - 1000);
+    }
+
+    private void record(String accessToken, String idToken, AuthorizationException ex) {
+        if (ex != null) {
+            mErrors.add(ex);
+        } else {
+            mAccessTokens.add(accessToken);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.gappauth.sdk;
+
+import net.openid.appauth.AuthorizationException;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenRefreshSchedulerTest {
+
+    private static final long NOW = 1_000_000_000L;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void refreshDelay_refreshesMarginBeforeExpiry() {
+        assertEquals(HOUR - 5 * MINUTE,
+                TokenRefreshScheduler.refreshDelayMs(NOW + HOUR, NOW, 5 * MINUTE, 0.0));
+    }
+
+    @Test
+    public void refreshDelay_subtractsJitter() {
+        long delay = TokenRefreshScheduler.refreshDelayMs(NOW + HOUR, NOW, 5 * MINUTE, 0.5);
+        assertTrue(delay < HOUR - 5 * MINUTE);
+        assertTrue(delay >= HOUR - 5 * MINUTE - TimeUnit.SECONDS.toMillis(30));
+    }
+
+    @Test
+    public void refreshDelay_marginLongerThanLifetime_isCappedAtHalfTheLifetime() {
+        assertEquals(HOUR / 2,
+                TokenRefreshScheduler.refreshDelayMs(NOW + HOUR, NOW, 2 * HOUR, 0.0));
+    }
+
+    @Test
+    public void refreshDelay_expiredToken_waitsTheMinimumDelay() {
+        assertEquals(TokenRefreshScheduler.MIN_DELAY_MS,
+                TokenRefreshScheduler.refreshDelayMs(NOW - MINUTE, NOW, 5 * MINUTE, 0.0));
+    }
+
+    @Test
+    public void isRetryable_networkError() {
+        assertTrue(TokenRefreshScheduler.isRetryable(
+                AuthorizationException.GeneralErrors.NETWORK_ERROR));
+    }
+
+    @Test
+    public void isRetryable_invalidGrant_isNotRetried() {
+        assertFalse(TokenRefreshScheduler.isRetryable(
+                AuthorizationException.TokenRequestErrors.INVALID_GRANT));
+    }
+}
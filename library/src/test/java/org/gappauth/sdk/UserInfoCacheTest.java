@@ -0,0 +1,66 @@
+package org.gappauth.sdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class UserInfoCacheTest {
+
+    private Context mContext;
+    private UserInfoCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        TestSingletons.reset(UserInfoCache.class);
+        mContext = ApplicationProvider.getApplicationContext();
+        SharedPreferences prefs = mContext.getSharedPreferences("userinfo", Context.MODE_PRIVATE);
+        prefs.edit()
+                .putString(UserInfoCache.keyFor("alice", "openid email"), entry("alice"))
+                .putString(UserInfoCache.keyFor("alice", "openid email profile"), entry("alice"))
+                .putString(UserInfoCache.keyFor("bob", "openid email"), entry("bob"))
+                .commit();
+        mCache = UserInfoCache.getInstance(mContext);
+    }
+
+    @Test
+    public void peek_returnsStoredAccount() {
+        assertEquals("bob", mCache.peek(UserInfoCache.keyFor("bob", "openid email")).getId());
+    }
+
+    @Test
+    public void removeSubject_dropsEntriesOfEveryScope() {
+        // load one entry into memory as well
+        assertNotNull(mCache.peek(UserInfoCache.keyFor("alice", "openid email")));
+
+        mCache.removeSubject("alice");
+
+        assertNull(mCache.peek(UserInfoCache.keyFor("alice", "openid email")));
+        assertNull(mCache.peek(UserInfoCache.keyFor("alice", "openid email profile")));
+        assertNotNull(mCache.peek(UserInfoCache.keyFor("bob", "openid email")));
+    }
+
+    @Test
+    public void keyFor_unknownSubject_isNotCached() {
+        assertNull(UserInfoCache.keyFor(null, "openid"));
+        assertNull(UserInfoCache.keyFor("", "openid"));
+    }
+
+    private static String entry(String subject) throws Exception {
+        JSONObject body = new JSONObject()
+                .put("sub", subject)
+                .put("email", subject + "@example.com");
+        return new JSONObject().put("body", body.toString()).toString();
+    }
+}
@@ -0,0 +1,88 @@
+package org.gappauth.sdk.api;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauthdemo.AuthStateManager;
+
+import org.gappauth.sdk.FakeAuthorizationService;
+import org.gappauth.sdk.TestAuthStates;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class GAppAuthAccessTokenTest {
+
+    private Context mContext;
+    private FakeAuthorizationService mService;
+    private GAppAuth mAppAuth;
+
+    @Before
+    public void setUp() throws Exception {
+        TestClients.reset();
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = new FakeAuthorizationService(mContext);
+        mAppAuth = TestClients.builder(mContext, mService).build();
+    }
+
+    @Test
+    public void getAccessToken_sameScopesTwice_refreshesOnce() {
+        TestClients.signIn(mContext, "alice", System.currentTimeMillis() - 1000);
+
+        TestClients.TokenResult first = getAccessToken("email");
+        mService.respond(0, "access-b");
+        shadowOf(Looper.getMainLooper()).idle();
+        TestClients.TokenResult second = getAccessToken("email");
+
+        assertEquals("access-b", first.accessToken);
+        assertEquals("access-b", second.accessToken);
+        assertEquals(1, mService.requests.size());
+    }
+
+    @Test
+    public void getAccessToken_afterTheGrantNarrowed_servesTheEarlierGrantsToken() {
+        AuthStateManager.getInstance(mContext).replace(TestAuthStates.authorizedState(
+                "refresh-alice", "access-alice", System.currentTimeMillis() - 1000,
+                "openid email drive", TestAuthStates.idToken("alice")));
+        getAccessToken("drive");
+        mService.respond(0, "access-drive");
+        shadowOf(Looper.getMainLooper()).idle();
+
+        // signing in again asks for the default scopes only
+        TestClients.signIn(mContext, "alice",
+                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        TestClients.TokenResult result = getAccessToken("drive");
+
+        assertNull(result.error);
+        assertEquals("access-drive", result.accessToken);
+        assertEquals(1, mService.requests.size());
+    }
+
+    @Test
+    public void getAccessToken_scopeNeverGranted_fails() {
+        TestClients.signIn(mContext, "alice",
+                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+
+        TestClients.TokenResult result = getAccessToken("drive");
+
+        assertEquals(GAppAuth.ScopesNotGrantedException.class, result.error.getClass());
+        assertEquals(0, mService.requests.size());
+    }
+
+    private TestClients.TokenResult getAccessToken(String scope) {
+        TestClients.TokenResult result = new TestClients.TokenResult();
+        mAppAuth.getAccessToken(Collections.singletonList(scope), result);
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package org.gappauth.sdk.api;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauthdemo.AuthStateStore;
+
+import org.gappauth.sdk.Dispatcher;
+import org.gappauth.sdk.FakeAuthorizationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class GAppAuthBuildAsyncTest {
+
+    private Context mContext;
+    private FakeAuthorizationService mService;
+    // initialization runs here, off the main thread, as it would in the app
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        TestClients.reset();
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = new FakeAuthorizationService(mContext);
+        mExecutor = Dispatcher.newSerialExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void buildAsync_deliversTheClientOnTheMainThread() throws Exception {
+        InitResult result = new InitResult();
+
+        TestClients.builder(mContext, mService)
+                .setExecutor(mExecutor)
+                .buildAsync(result);
+        // only posted, never delivered on the calling thread
+        assertFalse(result.completed);
+
+        awaitCompletion(result);
+
+        assertNotNull(result.appAuth);
+        assertNull(result.error);
+        assertSame(Looper.getMainLooper(), result.looper);
+    }
+
+    @Test
+    public void buildAsync_initializationThrows_deliversTheFailure() throws Exception {
+        IllegalStateException failure = new IllegalStateException("keystore unavailable");
+        InitResult result = new InitResult();
+
+        TestClients.builder(mContext, mService)
+                .setExecutor(mExecutor)
+                .setAuthStateStore(new AuthStateStore() {
+                    @Nullable
+                    @Override
+                    public String read(@NonNull String key) {
+                        throw failure;
+                    }
+
+                    @Override
+                    public void write(@NonNull String key, @Nullable String value) {
+                        throw failure;
+                    }
+                })
+                .buildAsync(result);
+        awaitCompletion(result);
+
+        assertNull(result.appAuth);
+        assertSame(failure, result.error);
+        assertSame(Looper.getMainLooper(), result.looper);
+        assertEquals(1, result.calls);
+    }
+
+    private static void awaitCompletion(InitResult result) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (!result.completed && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertTrue("No result delivered", result.completed);
+    }
+
+    private static final class InitResult implements GAppAuth.OnInitListener {
+        volatile boolean completed;
+        GAppAuth appAuth;
+        Exception error;
+        Looper looper;
+        int calls;
+
+        @Override
+        public void onReady(@NonNull GAppAuth appAuth) {
+            this.appAuth = appAuth;
+            complete();
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            this.error = e;
+            complete();
+        }
+
+        private void complete() {
+            looper = Looper.myLooper();
+            calls++;
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.gappauth.sdk.api;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthorizationResponse;
+import net.openid.appauth.TokenResponse;
+import net.openid.appauthdemo.AuthStateManager;
+
+import org.gappauth.sdk.FakeAuthorizationService;
+import org.gappauth.sdk.TestAuthStates;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class GAppAuthConcurrentFlowsTest {
+
+    private Context mContext;
+    private FakeAuthorizationService mService;
+    private GAppAuth mAppAuth;
+
+    @Before
+    public void setUp() throws Exception {
+        TestClients.reset();
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = new FakeAuthorizationService(mContext);
+        mAppAuth = TestClients.builder(mContext, mService)
+                .useIdTokenClaims()
+                .buildShared();
+        TestClients.signIn(mContext, "alice",
+                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test
+    public void silentSignIn_whileRefreshIsInFlight_buildsEachAccountInItsOwnFlow() {
+        TestClients.SignInResult refreshed = new TestClients.SignInResult();
+        mAppAuth.refresh(refreshed);
+
+        // an incremental authorization completes meanwhile, with a new code
+        AuthStateManager.getInstance(mContext).update(state -> {
+            TokenResponse tokens = state.getLastTokenResponse();
+            state.update(new AuthorizationResponse.Builder(
+                    state.getLastAuthorizationResponse().request)
+                    .setAuthorizationCode("code-2")
+                    .build(), null);
+            state.update(tokens, null);
+            return state;
+        });
+        TestClients.SignInResult silent = new TestClients.SignInResult();
+        GAppAuth.getInstance().silentSignIn(silent);
+        mService.respond(0, "access-b", TestAuthStates.idToken("alice"));
+
+        assertNull(refreshed.error);
+        assertNull(silent.error);
+        assertEquals("code", refreshed.account.getServerAuthCode());
+        assertEquals("code-2", silent.account.getServerAuthCode());
+    }
+}
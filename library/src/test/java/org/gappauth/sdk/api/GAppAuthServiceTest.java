@@ -0,0 +1,132 @@
+package org.gappauth.sdk.api;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.AuthorizationService;
+
+import org.gappauth.sdk.FakeAuthorizationService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class GAppAuthServiceTest {
+
+    private Context mContext;
+    private final List<FakeAuthorizationService> mCreated = new CopyOnWriteArrayList<>();
+    // when set, each creation waits here, so that the test can interleave other calls
+    private volatile Runnable mOnCreate;
+    private GAppAuth mAppAuth;
+
+    @Before
+    public void setUp() throws Exception {
+        TestClients.reset();
+        mContext = ApplicationProvider.getApplicationContext();
+        mAppAuth = TestClients.builder(mContext, new FakeAuthorizationService(mContext))
+                .setAuthorizationServiceFactory((ctx, configuration) -> {
+                    Runnable onCreate = mOnCreate;
+                    if (onCreate != null) {
+                        onCreate.run();
+                    }
+                    FakeAuthorizationService service = new FakeAuthorizationService(ctx);
+                    mCreated.add(service);
+                    return service;
+                })
+                .build();
+        // start without the service created by the warm-up
+        mAppAuth.dispose();
+        mCreated.clear();
+    }
+
+    @Test
+    public void getAuthorizationService_concurrentCallers_createOutsideTheLockAndShareOne()
+            throws Exception {
+        // both callers must be creating at once, which a lock around the creation prevents
+        CyclicBarrier bothCreating = new CyclicBarrier(2);
+        mOnCreate = () -> {
+            try {
+                bothCreating.await(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new AssertionError("Creations did not overlap", e);
+            }
+        };
+        List<AuthorizationService> results = new CopyOnWriteArrayList<>();
+
+        Thread first = new Thread(() -> results.add(mAppAuth.getAuthorizationService()));
+        Thread second = new Thread(() -> results.add(mAppAuth.getAuthorizationService()));
+        first.start();
+        second.start();
+        first.join(TimeUnit.SECONDS.toMillis(10));
+        second.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(2, mCreated.size());
+        assertEquals(2, results.size());
+        assertSame(results.get(0), results.get(1));
+        FakeAuthorizationService winner = (FakeAuthorizationService) results.get(0);
+        FakeAuthorizationService loser =
+                mCreated.get(0) == winner ? mCreated.get(1) : mCreated.get(0);
+        assertFalse(winner.disposed);
+        assertTrue(loser.disposed);
+        mOnCreate = null;
+        assertSame(winner, mAppAuth.getAuthorizationService());
+    }
+
+    @Test
+    public void dispose_whileAnotherScreenUsesTheService_handsItANewOne() {
+        AuthorizationService used = mAppAuth.getAuthorizationService();
+
+        mAppAuth.dispose();
+        AuthorizationService next = mAppAuth.getAuthorizationService();
+
+        assertTrue(((FakeAuthorizationService) used).disposed);
+        assertNotSame(used, next);
+        assertFalse(((FakeAuthorizationService) next).disposed);
+        assertSame(next, mAppAuth.getAuthorizationService());
+    }
+
+    @Test
+    public void dispose_duringCreation_disposesTheServiceBeingCreated() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch disposed = new CountDownLatch(1);
+        mOnCreate = () -> {
+            mOnCreate = null;
+            creating.countDown();
+            try {
+                disposed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        AtomicReference<AuthorizationService> result = new AtomicReference<>();
+        Thread screen = new Thread(() -> result.set(mAppAuth.getAuthorizationService()));
+        screen.start();
+        assertTrue(creating.await(5, TimeUnit.SECONDS));
+
+        mAppAuth.dispose();
+        disposed.countDown();
+        screen.join(TimeUnit.SECONDS.toMillis(10));
+
+        // the service created across dispose() is never published, a new one is
+        assertEquals(2, mCreated.size());
+        assertTrue(mCreated.get(0).disposed);
+        assertSame(mCreated.get(1), result.get());
+        assertFalse(mCreated.get(1).disposed);
+        assertSame(result.get(), mAppAuth.getAuthorizationService());
+    }
+}
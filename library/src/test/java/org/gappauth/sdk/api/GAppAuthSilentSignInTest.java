@@ -0,0 +1,88 @@
+package org.gappauth.sdk.api;
+
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauthdemo.AuthStateManager;
+
+import org.gappauth.sdk.FakeAuthorizationService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class GAppAuthSilentSignInTest {
+
+    private Context mContext;
+    private FakeAuthorizationService mService;
+    private GAppAuth mAppAuth;
+
+    @Before
+    public void setUp() throws Exception {
+        TestClients.reset();
+        mContext = ApplicationProvider.getApplicationContext();
+        mContext.getSharedPreferences("userinfo", Context.MODE_PRIVATE).edit().clear().commit();
+        mService = new FakeAuthorizationService(mContext);
+        mAppAuth = TestClients.builder(mContext, mService).build();
+    }
+
+    @Test
+    public void silentSignIn_returningUserWithValidTokens_makesNoRequest() throws Exception {
+        TestClients.signIn(mContext, "alice",
+                System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        TestClients.seedUserInfo(mContext, "alice");
+
+        TestClients.SignInResult result = new TestClients.SignInResult();
+        mAppAuth.silentSignIn(result);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        // delivered on the calling thread, from the cache
+        assertNotNull(result.account);
+        assertEquals("alice", result.account.getId());
+        assertEquals("alice@example.com", result.account.getEmail());
+        assertTrue(mService.requests.isEmpty());
+    }
+
+    @Test
+    public void silentSignIn_expiredTokens_deliversTheAccountAndRefreshesInTheBackground()
+            throws Exception {
+        TestClients.signIn(mContext, "alice", System.currentTimeMillis() - 1000);
+        TestClients.seedUserInfo(mContext, "alice");
+
+        TestClients.SignInResult result = new TestClients.SignInResult();
+        mAppAuth.silentSignIn(result);
+
+        // the account does not wait for the refresh
+        assertNotNull(result.account);
+        assertEquals(1, mService.requests.size());
+        assertEquals("refresh-alice", mService.requests.get(0).refreshToken);
+
+        mService.respond(0, "access-b");
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals("access-b", AuthStateManager.getInstance(mContext).getCurrent()
+                .getAccessToken());
+    }
+
+    @Test
+    public void silentSignIn_notSignedIn_fails() {
+        TestClients.SignInResult result = new TestClients.SignInResult();
+        mAppAuth.silentSignIn(result);
+
+        assertNull(result.account);
+        assertNotNull(result.error);
+        assertEquals("User is not signed in", result.error.getMessage());
+        assertTrue(mService.requests.isEmpty());
+    }
+}
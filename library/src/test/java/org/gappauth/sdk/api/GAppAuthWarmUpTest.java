@@ -0,0 +1,59 @@
+package org.gappauth.sdk.api;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.gappauth.sdk.FakeAuthorizationService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * No browser is installed in these tests, so none supports Custom Tabs.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class GAppAuthWarmUpTest {
+
+    private Context mContext;
+    private FakeAuthorizationService mService;
+    private GAppAuth mAppAuth;
+
+    @Before
+    public void setUp() throws Exception {
+        TestClients.reset();
+        mContext = ApplicationProvider.getApplicationContext();
+        mService = new FakeAuthorizationService(mContext);
+        // warms the browser up for the first sign-in, inline
+        mAppAuth = TestClients.builder(mContext, mService).build();
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    @Test
+    public void warmUp_noCustomTabsBrowser_buildsNoCustomTabsIntent() {
+        // building one would wait a second for a connection that is never made
+        assertEquals(0, mService.customTabsIntentBuilds);
+    }
+
+    @Test
+    public void signIn_noBrowser_throwsWithoutWaitingForCustomTabs() {
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+
+        try {
+            mAppAuth.signIn(activity, 1);
+            fail("Expected ActivityNotFoundException");
+        } catch (ActivityNotFoundException expected) {
+            // expected
+        }
+        assertEquals(0, mService.customTabsIntentBuilds);
+    }
+}
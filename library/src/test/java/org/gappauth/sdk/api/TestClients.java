@@ -0,0 +1,133 @@
+package org.gappauth.sdk.api;
+
+import android.content.Context;
+import android.net.Uri;
+
+import net.openid.appauthdemo.AuthStateManager;
+import net.openid.appauthdemo.Configuration;
+import net.openid.appauthdemo.InMemoryAuthStateStore;
+
+import org.gappauth.sdk.BrowserCache;
+import org.gappauth.sdk.DiscoveryCache;
+import org.gappauth.sdk.FakeAuthorizationService;
+import org.gappauth.sdk.ScopeTokenCache;
+import org.gappauth.sdk.TestAuthStates;
+import org.gappauth.sdk.TestSingletons;
+import org.gappauth.sdk.TokenRefreshCoordinator;
+import org.gappauth.sdk.UserInfoCache;
+import org.gappauth.sdk.entity.GSignInAccount;
+import org.gappauth.sdk.entity.GSignInOptions;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.robolectric.android.util.concurrent.InlineExecutorService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds clients whose token requests go to a {@link FakeAuthorizationService} and whose
+ * discovery document is already cached, so that they never reach the network.
+ */
+final class TestClients {
+
+    static final Uri DISCOVERY_URI =
+            Uri.parse("https://accounts.google.com/.well-known/openid-configuration");
+
+    static final String SCOPE = "openid email";
+
+    private TestClients() {
+    }
+
+    /**
+     * Drops the process-wide state the client builds on.
+     */
+    static void reset() {
+        TestSingletons.resetAuthStateManager();
+        TestSingletons.reset(GAppAuth.class);
+        TestSingletons.reset(Configuration.class);
+        TestSingletons.reset(DiscoveryCache.class);
+        TestSingletons.reset(UserInfoCache.class);
+        TestSingletons.reset(ScopeTokenCache.class);
+        TestSingletons.reset(TokenRefreshCoordinator.class);
+        TestSingletons.reset(BrowserCache.class);
+    }
+
+    /**
+     * Returns a builder for a client that runs its background work inline and uses the given
+     * service.
+     */
+    static GAppAuth.Builder builder(Context context, FakeAuthorizationService service)
+            throws JSONException {
+        seedDiscovery(context);
+        return new GAppAuth.Builder(context, new GSignInOptions.Builder().requestEmail().build())
+                .setAuthStateStore(new InMemoryAuthStateStore())
+                .setExecutor(new InlineExecutorService())
+                .setAuthorizationServiceFactory((ctx, configuration) -> service);
+    }
+
+    /**
+     * Makes the given subject signed in, with tokens expiring at the given time.
+     */
+    static void signIn(Context context, String subject, long accessTokenExpiresAt) {
+        AuthStateManager.getInstance(context).replace(TestAuthStates.authorizedState(
+                "refresh-" + subject, "access-" + subject, accessTokenExpiresAt, SCOPE,
+                TestAuthStates.idToken(subject)));
+    }
+
+    /**
+     * Caches the account of the given subject, as a previous sign-in with {@link #SCOPE} left it.
+     */
+    static void seedUserInfo(Context context, String subject) throws JSONException {
+        JSONObject body = new JSONObject()
+                .put("sub", subject)
+                .put("email", subject + "@example.com");
+        context.getSharedPreferences("userinfo", Context.MODE_PRIVATE).edit()
+                .putString(UserInfoCache.keyFor(subject, SCOPE),
+                        new JSONObject().put("body", body.toString()).toString())
+                .commit();
+    }
+
+    private static void seedDiscovery(Context context) throws JSONException {
+        JSONObject entry = new JSONObject()
+                .put("config", TestAuthStates.CONFIG.toJson())
+                .put("expires_at", System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1));
+        context.getSharedPreferences("discovery", Context.MODE_PRIVATE).edit()
+                .putString(DISCOVERY_URI.toString(), entry.toString())
+                .commit();
+    }
+
+    /**
+     * Records the outcome of a sign-in.
+     */
+    static final class SignInResult implements GAppAuth.OnSignInListener {
+        GSignInAccount account;
+        Exception error;
+
+        @Override
+        public void onSuccess(GSignInAccount account) {
+            this.account = account;
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            this.error = e;
+        }
+    }
+
+    /**
+     * Records the outcome of an access token request.
+     */
+    static final class TokenResult implements GAppAuth.OnTokenListener {
+        String accessToken;
+        Exception error;
+
+        @Override
+        public void onSuccess(String accessToken) {
+            this.accessToken = accessToken;
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            this.error = e;
+        }
+    }
+}
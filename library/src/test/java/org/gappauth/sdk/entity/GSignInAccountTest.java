@@ -0,0 +1,89 @@
+package org.gappauth.sdk.entity;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class GSignInAccountTest {
+
+    private static final String USER_INFO = "{\"sub\":\"alice\",\"email\":\"alice@example.com\","
+            + "\"name\":\"Alice Example\",\"given_name\":\"Alice\","
+            + "\"picture\":\"https://example.com/alice.png\",\"locale\":\"en\","
+            + "\"hd\":\"example.com\"}";
+
+    @Test
+    public void fromJsonSource_keepsFullResponseByDefault() throws Exception {
+        GSignInAccount account = new GSignInAccount.Builder()
+                .fromJson(source(USER_INFO), 1024)
+                .build();
+
+        assertEquals("alice", account.getId());
+        assertEquals(USER_INFO, account.getJsonResult());
+    }
+
+    @Test
+    public void fromJsonSource_compact_keepsProfileFieldsOnly() throws Exception {
+        GSignInAccount account = new GSignInAccount.Builder()
+                .setKeepRawJson(false)
+                .fromJson(source(USER_INFO), 1024)
+                .build();
+
+        JSONObject json = new JSONObject(account.getJsonResult());
+        assertEquals("alice@example.com", json.getString("email"));
+        assertEquals("Alice", json.getString("given_name"));
+        assertFalse(json.has("locale"));
+    }
+
+    @Test
+    public void fromJsonSource_malformed_failsOnBothPaths() {
+        for (boolean keepRawJson : new boolean[]{true, false}) {
+            try {
+                new GSignInAccount.Builder()
+                        .setKeepRawJson(keepRawJson)
+                        .fromJson(source("[\"not\", \"an object\"]"), 1024);
+                fail("Expected IOException, keepRawJson=" + keepRawJson);
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void fromJsonSource_tooLarge_fails() {
+        try {
+            new GSignInAccount.Builder().fromJson(source(USER_INFO), 16);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void fromIdTokenClaims_followsKeepRawJson() throws Exception {
+        JSONObject claims = new JSONObject(USER_INFO).put("aud", "client");
+
+        String full = new GSignInAccount.Builder().fromIdTokenClaims(claims).build()
+                .getJsonResult();
+        String compact = new GSignInAccount.Builder().setKeepRawJson(false)
+                .fromIdTokenClaims(claims).build().getJsonResult();
+
+        assertTrue(new JSONObject(full).has("locale"));
+        assertFalse(new JSONObject(compact).has("locale"));
+        assertEquals("alice", new JSONObject(compact).getString("sub"));
+    }
+
+    private static Buffer source(String json) {
+        return new Buffer().writeUtf8(json);
+    }
+}